@@ -6,8 +6,14 @@ public class Batch {
     private int id;
     private List<Operation> operations;
     private int machineId;
+    /* Position requested on the machine when the batch is added to a solution, the order of the machine is then kept by the solution */
     private int position;
     private int startTime;
+    /* Start time of a batch already started when the plan was rebuilt, it cannot be moved nor changed. -1 for the batches still planned */
+    private int frozenStart;
+    /* Index of the batch in the arrays of its solution. The state the solution, its recipe index and its disjunctive graph keep on a batch
+       lives in their own arrays at this index */
+    private int slot;
     
     public Batch(int id, int machineId, int position) {
         this.id = id;
@@ -15,6 +21,7 @@ public class Batch {
         this.position = position;
         this.operations = new ArrayList<>();
         this.startTime = -1;
+        this.frozenStart = -1;
     }
     
     public void addOperation(Operation op) {
@@ -26,6 +33,10 @@ public class Batch {
         return operations.isEmpty() ? null : operations.get(0).getRecipe();
     }
     
+    public int getRecipeId() {
+        return operations.isEmpty() ? -1 : operations.get(0).getRecipeId();
+    }
+    
     /* same logic than for recipe */
     public int getProcessingTime() {
         return operations.isEmpty() ? 0 : operations.get(0).getProcessingTime();
@@ -35,14 +46,22 @@ public class Batch {
         Batch b = new Batch(newId, machineId, position);
         b.operations = new ArrayList<>(operations);
         b.startTime = startTime;
+        b.frozenStart = frozenStart;
+        b.slot = slot;
         return b;
     }
     
     public int getId() { return id; }
     public List<Operation> getOperations() { return operations; }
     public int getMachineId() { return machineId; }
+    public void setMachineId(int machineId) { this.machineId = machineId; }
     public int getPosition() { return position; }
     public void setPosition(int position) { this.position = position; }
     public int getStartTime() { return startTime; }
+    public int getSlot() { return slot; }
+    public void setSlot(int slot) { this.slot = slot; }
     public void setStartTime(int startTime) { this.startTime = startTime; }
+    public boolean isFrozen() { return frozenStart >= 0; }
+    public int getFrozenStart() { return frozenStart; }
+    public void setFrozenStart(int frozenStart) { this.frozenStart = frozenStart; }
 }
\ No newline at end of file
@@ -0,0 +1,276 @@
+import java.util.*;
+
+/* Live index of the batches of a solution by recipe id, updated by the solution every time an operation or a batch moves so the moves and the PBIA
+   find compatible batches without scanning the whole solution:
+   - batches of a recipe: every non empty batch processing it
+   - open batches of a recipe: the ones with room left on their machine
+   The entries of a batch in the recipe lists are kept by its slot in the solution, so it is removed by moving the last batch of the list in its place.
+   During a move of the solution the changes are journaled, a rolled back move gives back the lists in their exact previous order so the
+   moves drawn afterwards do not depend on the neighbors tried before */
+public class BatchIndex {
+    /* Kinds of journal entries */
+    private static final int FIELDS = 0;
+    private static final int APPEND = 2;
+    private static final int REMOVE = 3;
+    private static final int SHARED_APPEND = 4;
+    private static final int SHARED_REMOVE = 5;
+
+    private static class Group {
+        List<Batch> batches = new ArrayList<>();
+        List<Batch> open = new ArrayList<>();
+        int sharedIndex = -1;
+    }
+
+    private Problem problem;
+    /* Recipe a batch is indexed under and its index in the batches and the open batches of the recipe, by slot, -1 when absent */
+    private int[] indexedRecipe;
+    private int[] recipeIndex;
+    private int[] openIndex;
+    /* Groups indexed by recipe id, created the first time a batch of the recipe is indexed */
+    private Group[] groups;
+    /* Groups holding at least two batches, the ones the operation switch can pick from */
+    private List<Group> shared;
+    private int recipeCount;
+    private UndoLog undoLog;
+    private boolean recording;
+
+    public BatchIndex(Problem problem) {
+        this.problem = problem;
+        this.recipeCount = problem.getRecipeCount();
+        this.groups = new Group[recipeCount];
+        this.shared = new ArrayList<>();
+        this.undoLog = new UndoLog();
+        this.indexedRecipe = new int[0];
+        this.recipeIndex = new int[0];
+        this.openIndex = new int[0];
+    }
+
+    public void beginMove() {
+        undoLog.clear();
+        recording = true;
+    }
+
+    public void commitMove() {
+        recording = false;
+        undoLog.clear();
+    }
+
+    /* Revert every change since beginMove() in reverse order */
+    @SuppressWarnings("unchecked")
+    public void rollbackMove() {
+        recording = false;
+        for (int i = undoLog.size() - 1; i >= 0; i--) {
+            int value = undoLog.getInt(i);
+            switch (undoLog.getKind(i)) {
+                case FIELDS: {
+                    int slot = undoLog.getExtra(i);
+                    indexedRecipe[slot] = value;
+                    recipeIndex[slot] = (int) undoLog.getFirst(i);
+                    openIndex[slot] = (int) undoLog.getSecond(i);
+                    break;
+                }
+                case APPEND: {
+                    List<Batch> list = (List<Batch>) undoLog.getRef(i);
+                    list.remove(list.size() - 1);
+                    break;
+                }
+                case REMOVE: {
+                    /* the removed batch had been replaced by the last one of the list */
+                    List<Batch> list = (List<Batch>) undoLog.getRef(i);
+                    Batch removed = (Batch) undoLog.getOther(i);
+                    if (value == list.size()) {
+                        list.add(removed);
+                    } else {
+                        list.add(list.get(value));
+                        list.set(value, removed);
+                    }
+                    break;
+                }
+                case SHARED_APPEND:
+                    shared.remove(shared.size() - 1).sharedIndex = -1;
+                    break;
+                case SHARED_REMOVE: {
+                    Group group = (Group) undoLog.getRef(i);
+                    if (value < shared.size()) {
+                        Group moved = shared.get(value);
+                        moved.sharedIndex = shared.size();
+                        shared.add(moved);
+                        shared.set(value, group);
+                    } else {
+                        shared.add(group);
+                    }
+                    group.sharedIndex = value;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown undo entry " + undoLog.getKind(i));
+            }
+        }
+        undoLog.clear();
+    }
+
+    /* Bring the entries of a batch in line with its current operations and machine, a batch that left the solution is removed from everything */
+    public void update(Batch batch, boolean present) {
+        int slot = batch.getSlot();
+        ensureCapacity(slot + 1);
+        int recipe = present ? batch.getRecipeId() : -1;
+        Machine machine = recipe < 0 ? null : problem.getMachine(batch.getMachineId());
+        boolean open = machine != null && batch.getOperations().size() < machine.getCapacity();
+        logFields(slot);
+
+        if (indexedRecipe[slot] != recipe) {
+            if (indexedRecipe[slot] >= 0) {
+                Group group = groups[indexedRecipe[slot]];
+                if (openIndex[slot] >= 0) removeAt(group.open, openIndex[slot], false);
+                removeAt(group.batches, recipeIndex[slot], true);
+                updateShared(group);
+            }
+            indexedRecipe[slot] = recipe;
+            if (recipe >= 0) {
+                if (groups[recipe] == null) groups[recipe] = new Group();
+                Group group = groups[recipe];
+                recipeIndex[slot] = group.batches.size();
+                group.batches.add(batch);
+                if (recording) undoLog.push(APPEND, group.batches, null, 0, 0);
+                updateShared(group);
+            }
+        }
+
+        if (recipe >= 0 && open != openIndex[slot] >= 0) {
+            Group group = groups[recipe];
+            if (open) {
+                openIndex[slot] = group.open.size();
+                group.open.add(batch);
+                if (recording) undoLog.push(APPEND, group.open, null, 0, 0);
+            } else {
+                removeAt(group.open, openIndex[slot], false);
+            }
+        }
+    }
+
+    /* The slots of the solution only grow, the new ones are not indexed */
+    private void ensureCapacity(int capacity) {
+        if (indexedRecipe.length >= capacity) return;
+        int length = indexedRecipe.length;
+        capacity = Math.max(capacity, Math.max(16, length * 2));
+        indexedRecipe = Arrays.copyOf(indexedRecipe, capacity);
+        recipeIndex = Arrays.copyOf(recipeIndex, capacity);
+        openIndex = Arrays.copyOf(openIndex, capacity);
+        Arrays.fill(indexedRecipe, length, capacity, -1);
+        Arrays.fill(recipeIndex, length, capacity, -1);
+        Arrays.fill(openIndex, length, capacity, -1);
+    }
+
+    private void removeAt(List<Batch> list, int index, boolean recipeList) {
+        Batch removed = list.get(index);
+        Batch last = list.remove(list.size() - 1);
+        if (recording) undoLog.push(REMOVE, list, removed, index, 0);
+        if (last != removed) {
+            logFields(last.getSlot());
+            list.set(index, last);
+            if (recipeList) recipeIndex[last.getSlot()] = index; else openIndex[last.getSlot()] = index;
+        }
+        if (recipeList) recipeIndex[removed.getSlot()] = -1; else openIndex[removed.getSlot()] = -1;
+    }
+
+    private void updateShared(Group group) {
+        boolean isShared = group.batches.size() >= 2;
+        if (isShared == group.sharedIndex >= 0) return;
+        if (isShared) {
+            group.sharedIndex = shared.size();
+            shared.add(group);
+            if (recording) undoLog.push(SHARED_APPEND, group, null, 0, 0);
+        } else {
+            if (recording) undoLog.push(SHARED_REMOVE, group, null, group.sharedIndex, 0);
+            Group last = shared.remove(shared.size() - 1);
+            if (last != group) {
+                shared.set(group.sharedIndex, last);
+                last.sharedIndex = group.sharedIndex;
+            }
+            group.sharedIndex = -1;
+        }
+    }
+
+    /* The entries of a slot before they change, restored by a rollback */
+    private void logFields(int slot) {
+        if (!recording) return;
+        undoLog.push(FIELDS, null, null, indexedRecipe[slot], slot, recipeIndex[slot], openIndex[slot]);
+    }
+
+    /* Copy of the index for a copy of its solution, whose batches are given by slot. The lists keep their order so both solutions draw the
+       same moves, the copy is not in a move */
+    BatchIndex copy(Batch[] slots) {
+        BatchIndex copy = new BatchIndex(problem);
+        copy.indexedRecipe = indexedRecipe.clone();
+        copy.recipeIndex = recipeIndex.clone();
+        copy.openIndex = openIndex.clone();
+        Group[] sharedGroups = new Group[shared.size()];
+        for (int recipe = 0; recipe < recipeCount; recipe++) {
+            Group group = groups[recipe];
+            if (group == null) continue;
+            Group copied = new Group();
+            for (Batch batch : group.batches) copied.batches.add(slots[batch.getSlot()]);
+            for (Batch batch : group.open) copied.open.add(slots[batch.getSlot()]);
+            copied.sharedIndex = group.sharedIndex;
+            if (copied.sharedIndex >= 0) sharedGroups[copied.sharedIndex] = copied;
+            copy.groups[recipe] = copied;
+        }
+        copy.shared.addAll(Arrays.asList(sharedGroups));
+        return copy;
+    }
+
+    /* Put the lists of a recipe in a saved order, the same batches as the index holds in another one. A solution rebuilt from a checkpoint
+       gets the order of the run that saved it, the moves drawn afterwards depend on it */
+    void reorder(int recipe, List<Batch> batches, List<Batch> open) {
+        if (recording) throw new IllegalStateException("The index cannot be reordered during a move");
+        List<Batch> currentBatches = getBatches(recipe);
+        List<Batch> currentOpen = getOpenBatches(recipe);
+        if (batches.size() != currentBatches.size() || !new HashSet<>(batches).containsAll(currentBatches)
+            || open.size() != currentOpen.size() || !new HashSet<>(open).containsAll(currentOpen)) {
+            throw new IllegalArgumentException("The new order of recipe " + recipe + " does not hold the batches of the recipe");
+        }
+        if (batches.isEmpty()) return;
+        Group group = groups[recipe];
+        group.batches.clear();
+        group.batches.addAll(batches);
+        for (int i = 0; i < batches.size(); i++) recipeIndex[batches.get(i).getSlot()] = i;
+        group.open.clear();
+        group.open.addAll(open);
+        for (int i = 0; i < open.size(); i++) openIndex[open.get(i).getSlot()] = i;
+    }
+
+    /* Same for the order of the recipes processed by several batches, given by recipe id */
+    void reorderShared(int[] recipes) {
+        if (recording) throw new IllegalStateException("The index cannot be reordered during a move");
+        if (recipes.length != shared.size()) throw new IllegalArgumentException("The new order does not hold the shared recipes");
+        List<Group> order = new ArrayList<>(recipes.length);
+        for (int recipe : recipes) {
+            Group group = recipe >= 0 && recipe < recipeCount ? groups[recipe] : null;
+            if (group == null || group.sharedIndex < 0) throw new IllegalArgumentException("Recipe " + recipe + " is not shared");
+            order.add(group);
+        }
+        if (new HashSet<>(order).size() != order.size()) throw new IllegalArgumentException("The new order repeats a shared recipe");
+        shared.clear();
+        shared.addAll(order);
+        for (int i = 0; i < shared.size(); i++) shared.get(i).sharedIndex = i;
+    }
+
+    /* Index of a batch among the open batches of its recipe, -1 when it has no room left or is not indexed */
+    public int getOpenIndex(Batch batch) {
+        return batch.getSlot() < openIndex.length ? openIndex[batch.getSlot()] : -1;
+    }
+
+    public List<Batch> getBatches(int recipe) {
+        Group group = recipe < recipeCount ? groups[recipe] : null;
+        return group == null ? Collections.emptyList() : group.batches;
+    }
+
+    public List<Batch> getOpenBatches(int recipe) {
+        Group group = recipe < recipeCount ? groups[recipe] : null;
+        return group == null ? Collections.emptyList() : group.open;
+    }
+
+    /* Batches of the recipes processed by several batches, numbered from 0 to getSharedRecipeCount() - 1 */
+    public int getSharedRecipeCount() { return shared.size(); }
+    public List<Batch> getSharedRecipeBatches(int i) { return shared.get(i).batches; }
+}
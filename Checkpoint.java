@@ -0,0 +1,309 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/* Saved state of an annealing run, enough to continue the search where it stopped with the same moves and the same objective values.
+   The state is captured between two iterations into arrays the run does not touch afterwards, the run itself goes on unchanged, and it is
+   encoded by the thread writing the file. Both solutions are stored as snapshots, per machine of the problem the batches in processing order
+   with their id, their frozen start time (-1 when not frozen), their start time and the global indices of their operations, followed by the
+   time of their last replanning, the next batch id and the recorded objective. The current solution also keeps the orders the moves draw from:
+   the batch list of the solution, the batches and open batches of every recipe in the index, the shared recipes, and the running sums of its
+   objective. The ranking of the guided moves is stored as well so it is not taken again before the end of its interval.
+   File layout, big endian: magic, version, payload length, payload, CRC32 of the payload. The file is written next to its final name and
+   renamed over it, so a crash in the middle of a write leaves the previous checkpoint in place */
+public class Checkpoint {
+    private static final int MAGIC = 0x53414350;
+    private static final int VERSION = 4;
+
+    private Problem problem;
+    private double initialTemperature;
+    private double coolingRate;
+    private int maxIterations;
+    private double temperature;
+    private long iteration;
+    private long lastImprovement;
+    private boolean maxLagsEnforced;
+    private long seed;
+    private SolutionSnapshot current;
+    /* Ids of the batches of the current solution in list order, and per recipe id in the order of the index */
+    private int[] batchOrder;
+    private int[][] recipeBatches;
+    private int[][] openBatches;
+    private int[] sharedRecipes;
+    private double[] runningSums;
+    private SolutionSnapshot best;
+    private int[] criticalOperations;
+    private int[] underfilledOperations;
+    private long guidanceInterval;
+
+    private Checkpoint() {
+    }
+
+    /* Copy of the state of a run between two iterations, the current solution is only read. The ranking arrays are kept as they are since the
+       run replaces them instead of changing them */
+    public static Checkpoint capture(double initialTemperature, double coolingRate, int maxIterations, double temperature, long iteration,
+                                     long lastImprovement, boolean maxLagsEnforced, long seed, Solution current, SolutionSnapshot best,
+                                     int[] criticalOperations, int[] underfilledOperations, long guidanceInterval) {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.problem = current.getProblem();
+        checkpoint.initialTemperature = initialTemperature;
+        checkpoint.coolingRate = coolingRate;
+        checkpoint.maxIterations = maxIterations;
+        checkpoint.temperature = temperature;
+        checkpoint.iteration = iteration;
+        checkpoint.lastImprovement = lastImprovement;
+        checkpoint.maxLagsEnforced = maxLagsEnforced;
+        checkpoint.seed = seed;
+        checkpoint.current = current.snapshot();
+        checkpoint.batchOrder = ids(current.getBatches());
+        BatchIndex index = current.getBatchIndex();
+        int recipeCount = checkpoint.problem.getRecipeCount();
+        checkpoint.recipeBatches = new int[recipeCount][];
+        checkpoint.openBatches = new int[recipeCount][];
+        for (int recipe = 0; recipe < recipeCount; recipe++) {
+            checkpoint.recipeBatches[recipe] = ids(index.getBatches(recipe));
+            checkpoint.openBatches[recipe] = ids(index.getOpenBatches(recipe));
+        }
+        checkpoint.sharedRecipes = new int[index.getSharedRecipeCount()];
+        for (int i = 0; i < checkpoint.sharedRecipes.length; i++) {
+            checkpoint.sharedRecipes[i] = index.getSharedRecipeBatches(i).get(0).getRecipeId();
+        }
+        checkpoint.runningSums = current.getRunningSums();
+        checkpoint.best = best;
+        checkpoint.criticalOperations = criticalOperations;
+        checkpoint.underfilledOperations = underfilledOperations;
+        checkpoint.guidanceInterval = guidanceInterval;
+        return checkpoint;
+    }
+
+    private static int[] ids(List<Batch> batches) {
+        int[] ids = new int[batches.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = batches.get(i).getId();
+        return ids;
+    }
+
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(problem.getJobs().size());
+            out.writeInt(problem.getOperationCount());
+            out.writeInt(problem.getMachines().size());
+            out.writeInt(problem.getRecipeCount());
+            out.writeDouble(initialTemperature);
+            out.writeDouble(coolingRate);
+            out.writeInt(maxIterations);
+            out.writeDouble(temperature);
+            out.writeLong(iteration);
+            out.writeLong(lastImprovement);
+            out.writeBoolean(maxLagsEnforced);
+            /* the random numbers of an iteration only depend on the seed and the iteration, which are enough to go on */
+            out.writeLong(seed);
+            writeSnapshot(out, current);
+            writeInts(out, batchOrder);
+            for (int recipe = 0; recipe < recipeBatches.length; recipe++) {
+                writeInts(out, recipeBatches[recipe]);
+                writeInts(out, openBatches[recipe]);
+            }
+            writeInts(out, sharedRecipes);
+            for (double sum : runningSums) out.writeDouble(sum);
+            writeSnapshot(out, best);
+            out.writeLong(guidanceInterval);
+            writeInts(out, criticalOperations);
+            writeInts(out, underfilledOperations);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeSnapshot(DataOutputStream out, SolutionSnapshot snapshot) throws IOException {
+        out.writeInt(snapshot.getNow());
+        out.writeInt(snapshot.getNextBatchId());
+        out.writeDouble(snapshot.getObjectiveValue());
+        out.writeDouble(snapshot.getfMov());
+        out.writeDouble(snapshot.getfBatch());
+        out.writeDouble(snapshot.getfXFac());
+        out.writeLong(snapshot.getStructureHash());
+        for (int m = 0; m < snapshot.getProblem().getMachines().size(); m++) {
+            SolutionSnapshot.MachinePlan plan = snapshot.getPlan(m);
+            writeInts(out, plan.ids);
+            writeInts(out, plan.frozenStarts);
+            writeInts(out, plan.startTimes);
+            writeInts(out, plan.first);
+            writeInts(out, plan.operations);
+        }
+    }
+
+    /* An array with its length first, -1 for null */
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (int value : values) out.writeInt(value);
+    }
+
+    /* Rebuild the state from an encoded payload, the current solution is built by getCurrent() */
+    public static Checkpoint decode(Problem problem, byte[] payload) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readInt() != problem.getJobs().size() || in.readInt() != problem.getOperationCount()
+                || in.readInt() != problem.getMachines().size() || in.readInt() != problem.getRecipeCount()) {
+                throw new IllegalArgumentException("The checkpoint was written for another problem");
+            }
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.problem = problem;
+            checkpoint.initialTemperature = in.readDouble();
+            checkpoint.coolingRate = in.readDouble();
+            checkpoint.maxIterations = in.readInt();
+            checkpoint.temperature = in.readDouble();
+            checkpoint.iteration = in.readLong();
+            checkpoint.lastImprovement = in.readLong();
+            checkpoint.maxLagsEnforced = in.readBoolean();
+            checkpoint.seed = in.readLong();
+            checkpoint.current = readSnapshot(in, problem);
+            checkpoint.batchOrder = readInts(in);
+            int recipeCount = problem.getRecipeCount();
+            checkpoint.recipeBatches = new int[recipeCount][];
+            checkpoint.openBatches = new int[recipeCount][];
+            for (int recipe = 0; recipe < recipeCount; recipe++) {
+                checkpoint.recipeBatches[recipe] = readInts(in);
+                checkpoint.openBatches[recipe] = readInts(in);
+            }
+            checkpoint.sharedRecipes = readInts(in);
+            checkpoint.runningSums = new double[3];
+            for (int i = 0; i < 3; i++) checkpoint.runningSums[i] = in.readDouble();
+            checkpoint.best = readSnapshot(in, problem);
+            checkpoint.guidanceInterval = in.readLong();
+            checkpoint.criticalOperations = readInts(in);
+            checkpoint.underfilledOperations = readInts(in);
+            return checkpoint;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated checkpoint", e);
+        }
+    }
+
+    private static SolutionSnapshot readSnapshot(DataInputStream in, Problem problem) throws IOException {
+        int now = in.readInt();
+        int nextBatchId = in.readInt();
+        double objectiveValue = in.readDouble();
+        double fMov = in.readDouble();
+        double fBatch = in.readDouble();
+        double fXFac = in.readDouble();
+        long structureHash = in.readLong();
+        SolutionSnapshot.MachinePlan[] plans = new SolutionSnapshot.MachinePlan[problem.getMachines().size()];
+        for (int m = 0; m < plans.length; m++) {
+            plans[m] = new SolutionSnapshot.MachinePlan(readInts(in), readInts(in), readInts(in), readInts(in), readInts(in));
+        }
+        return new SolutionSnapshot(problem, plans, now, nextBatchId, objectiveValue, fMov, fBatch, fXFac, structureHash);
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) values[i] = in.readInt();
+        return values;
+    }
+
+    /* The current solution as the run had it, batches, machine sequences and index in the same orders. It still has to be scheduled and
+       evaluated, then given back its running sums with Solution.setRunningSums(getRunningSums()) */
+    public Solution getCurrent() {
+        Solution solution = new Solution(problem);
+        solution.setNow(current.getNow());
+        List<Operation> operations = problem.getOperations();
+        List<Machine> machines = problem.getMachines();
+        Map<Integer, Batch> batches = new HashMap<>();
+        for (int m = 0; m < machines.size(); m++) {
+            SolutionSnapshot.MachinePlan plan = current.getPlan(m);
+            for (int i = 0; i < plan.ids.length; i++) {
+                Batch batch = new Batch(plan.ids[i], machines.get(m).getId(), i);
+                batch.setFrozenStart(plan.frozenStarts[i]);
+                for (int k = plan.first[i]; k < plan.first[i + 1]; k++) {
+                    batch.addOperation(operations.get(plan.operations[k]));
+                }
+                batches.put(batch.getId(), batch);
+            }
+        }
+        if (batchOrder.length != batches.size()) throw new IllegalArgumentException("The batch list of the checkpoint does not match its machines");
+        for (int id : batchOrder) solution.addBatch(batchOf(batches, id));
+        for (int m = 0; m < machines.size(); m++) {
+            solution.setMachineOrder(machines.get(m).getId(), batchesOf(batches, current.getPlan(m).ids));
+        }
+        BatchIndex index = solution.getBatchIndex();
+        for (int recipe = 0; recipe < recipeBatches.length; recipe++) {
+            index.reorder(recipe, batchesOf(batches, recipeBatches[recipe]), batchesOf(batches, openBatches[recipe]));
+        }
+        index.reorderShared(sharedRecipes);
+        solution.setNextBatchId(current.getNextBatchId());
+        return solution;
+    }
+
+    private static Batch batchOf(Map<Integer, Batch> batches, int id) {
+        Batch batch = batches.get(id);
+        if (batch == null) throw new IllegalArgumentException("Unknown batch " + id + " in the checkpoint");
+        return batch;
+    }
+
+    private static List<Batch> batchesOf(Map<Integer, Batch> batches, int[] ids) {
+        List<Batch> list = new ArrayList<>(ids.length);
+        for (int id : ids) list.add(batchOf(batches, id));
+        return list;
+    }
+
+    /* Atomic write: the payload goes to a temporary file forced to the disk, which then replaces the checkpoint */
+    public static void write(Path path, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(MAGIC).putInt(VERSION).putInt(payload.length).flip();
+        ByteBuffer trailer = ByteBuffer.allocate(8);
+        trailer.putLong(crc.getValue()).flip();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = {header, ByteBuffer.wrap(payload), trailer};
+            while (trailer.hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static Checkpoint read(Problem problem, Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < 20 || buffer.getInt() != MAGIC) throw new IOException("Not a checkpoint: " + path);
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported checkpoint version " + version);
+        int length = buffer.getInt();
+        if (length < 0 || buffer.remaining() != length + 8) throw new IOException("Truncated checkpoint: " + path);
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != buffer.getLong()) throw new IOException("Corrupted checkpoint: " + path);
+        return decode(problem, payload);
+    }
+
+    public double getInitialTemperature() { return initialTemperature; }
+    public double getCoolingRate() { return coolingRate; }
+    public int getMaxIterations() { return maxIterations; }
+    public double getTemperature() { return temperature; }
+    public long getIteration() { return iteration; }
+    public long getLastImprovement() { return lastImprovement; }
+    public boolean isMaxLagsEnforced() { return maxLagsEnforced; }
+    public long getSeed() { return seed; }
+    public double[] getRunningSums() { return runningSums.clone(); }
+    public SolutionSnapshot getBest() { return best; }
+    public int[] getCriticalOperations() { return criticalOperations; }
+    public int[] getUnderfilledOperations() { return underfilledOperations; }
+    public long getGuidanceInterval() { return guidanceInterval; }
+}
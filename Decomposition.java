@@ -0,0 +1,454 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Decomposition of the problem into groups of machines annealed concurrently, one sub-problem per group and thread.
+   - the machines sharing the operations of a recipe are grouped by the union of their eligibility, groups sharing no operation are independent
+   - a group heavier than its share of the operations is split by growing parts along the machines sharing the most operations,
+     an operation whose machines are in several parts is kept on the part holding most of them (a cut operation)
+   - the operations of a part are the sub-jobs of the consecutive operations of a job in the part, a sub-job starting after an operation of
+     another part gets the end of that operation plus its min time lag in the current schedule as release date
+   - every round the parts are annealed from the current schedule, the part solutions are merged back and scheduled on the whole problem,
+     which gives the release dates of the next round. Machine orders of two parts closing a cycle are mended, a part is only left as it was
+     for the round when its batches and the ones of the other parts wait for each other */
+public class Decomposition {
+    private Problem problem;
+    private double temperature;
+    private double coolingRate;
+    private int iterationsPerRound;
+    private int rounds;
+    private long seed;
+    private SolverMetrics metrics;
+
+    /* Machines of every part, part of every machine by index and of every operation by global index (-1 for no machine) */
+    private List<List<Machine>> parts;
+    private int[] machinePart;
+    private int[] operationPart;
+    /* Eligible machines of every operation restricted to its part */
+    private List<List<Integer>> eligibleMachines;
+    private int cutOperations;
+
+    /* Annealed sub-problem of a part, with the operations of the whole problem its operations stand for. The best solution of the part is
+       kept as a snapshot, it is only built again for the merge */
+    private static class SubProblem {
+        Problem problem;
+        Operation[] operations;
+        SolutionSnapshot best;
+    }
+
+    /* The parts are about as heavy as the operations divided by partCount, fewer when the groups of machines are smaller than that */
+    public Decomposition(Problem problem, int partCount, double temperature, double coolingRate, int iterationsPerRound, int rounds, long seed) {
+        this.problem = problem;
+        this.temperature = temperature;
+        this.coolingRate = coolingRate;
+        this.iterationsPerRound = iterationsPerRound;
+        this.rounds = rounds;
+        this.seed = seed;
+        this.metrics = new SolverMetrics(SimulatedAnnealing.MOVE_NAMES, 16, 1);
+        partition(Math.max(1, partCount));
+    }
+
+    public SolverMetrics getMetrics() { return metrics; }
+    public List<List<Machine>> getParts() { return parts; }
+    public int getPart(Operation op) { return operationPart[op.getGlobalIndex()]; }
+    public int getCutOperations() { return cutOperations; }
+
+    private void partition(int partCount) {
+        List<Machine> machines = problem.getMachines();
+        int machineCount = machines.size();
+        int[] root = new int[machineCount];
+        for (int i = 0; i < machineCount; i++) root[i] = i;
+        double[] load = new double[machineCount];
+        /* per machine, the machines sharing operations with it and how many, only the pairs that share some are kept */
+        List<Map<Integer, Integer>> shared = new ArrayList<>(machineCount);
+        for (int i = 0; i < machineCount; i++) shared.add(new HashMap<>());
+        double totalLoad = 0;
+
+        /* load of a machine: its share of the operations it can process, coupling: the operations two machines can both process */
+        List<int[]> capable = new ArrayList<>();
+        for (Operation op : problem.getOperations()) {
+            int[] indices = capableMachines(op);
+            capable.add(indices);
+            for (int i = 0; i < indices.length; i++) {
+                load[indices[i]] += 1.0 / indices.length;
+                for (int j = i + 1; j < indices.length; j++) {
+                    shared.get(indices[i]).merge(indices[j], 1, Integer::sum);
+                    shared.get(indices[j]).merge(indices[i], 1, Integer::sum);
+                }
+                if (i > 0) root[find(root, indices[i])] = find(root, indices[0]);
+            }
+            if (indices.length > 0) totalLoad++;
+        }
+
+        double target = Math.max(1, totalLoad / partCount);
+        machinePart = new int[machineCount];
+        Arrays.fill(machinePart, -1);
+        parts = new ArrayList<>();
+        List<Integer> idle = new ArrayList<>();
+        /* machines of every group in index order, the groups in the order of their first machine */
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < machineCount; i++) groups.computeIfAbsent(find(root, i), r -> new ArrayList<>()).add(i);
+        for (List<Integer> group : groups.values()) {
+            double groupLoad = 0;
+            for (int i : group) groupLoad += load[i];
+            /* machines no operation can use join the last part at the end */
+            if (groupLoad == 0) {
+                idle.addAll(group);
+                continue;
+            }
+            int pieces = Math.max(1, (int) Math.round(groupLoad / target));
+            int left = group.size();
+            for (int piece = 0; piece < pieces && left > 0; piece++) {
+                int part = parts.size();
+                List<Machine> members = new ArrayList<>();
+                parts.add(members);
+                double partLoad = 0;
+                int[] coupling = new int[machineCount];
+                /* the last piece takes what is left, the others grow from the first free machine towards the most coupled ones */
+                while (left > 0 && (piece == pieces - 1 || partLoad < groupLoad / pieces)) {
+                    int next = -1;
+                    for (int i : group) {
+                        if (machinePart[i] < 0 && (next < 0 || coupling[i] > coupling[next])) next = i;
+                    }
+                    machinePart[next] = part;
+                    members.add(machines.get(next));
+                    partLoad += load[next];
+                    left--;
+                    for (Map.Entry<Integer, Integer> pair : shared.get(next).entrySet()) coupling[pair.getKey()] += pair.getValue();
+                }
+            }
+        }
+
+        if (parts.isEmpty() && !idle.isEmpty()) parts.add(new ArrayList<>());
+        for (int i : idle) {
+            machinePart[i] = parts.size() - 1;
+            parts.get(parts.size() - 1).add(machines.get(i));
+        }
+
+        /* every operation goes to the part with most of its machines, the first one on a tie */
+        operationPart = new int[problem.getOperationCount()];
+        eligibleMachines = new ArrayList<>();
+        int[] count = new int[parts.size()];
+        for (Operation op : problem.getOperations()) {
+            int[] indices = capable.get(op.getGlobalIndex());
+            Arrays.fill(count, 0);
+            int part = -1;
+            for (int index : indices) {
+                int p = machinePart[index];
+                count[p]++;
+                if (part < 0 || count[p] > count[part] || count[p] == count[part] && p < part) part = p;
+            }
+            operationPart[op.getGlobalIndex()] = part;
+            List<Integer> eligible = new ArrayList<>();
+            for (int index : indices) {
+                if (machinePart[index] == part) eligible.add(machines.get(index).getId());
+            }
+            if (eligible.size() < indices.length) cutOperations++;
+            eligibleMachines.add(eligible);
+        }
+    }
+
+    /* Indices of the eligible machines able to process the recipe of an operation */
+    private int[] capableMachines(Operation op) {
+        int[] indices = new int[op.getEligibleMachines().size()];
+        int count = 0;
+        for (int machineId : op.getEligibleMachines()) {
+            Machine machine = problem.getMachine(machineId);
+            if (machine != null && machine.canProcess(op.getRecipeId())) indices[count++] = machine.getIndex();
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    private static int find(int[] root, int i) {
+        while (root[i] != i) {
+            root[i] = root[root[i]];
+            i = root[i];
+        }
+        return i;
+    }
+
+    public Solution solve(Solution initial) {
+        SimulatedAnnealing annealing = new SimulatedAnnealing(problem, temperature, coolingRate, iterationsPerRound * rounds, seed);
+        Solution current = initial.clone();
+        if (annealing.schedule(current) == null) {
+            System.out.println("Error: the job and machine orders of the initial solution contain a cycle.");
+            return initial.clone();
+        }
+        SolutionSnapshot best = current.snapshot();
+        SplittableRandom seeds = new SplittableRandom(seed);
+
+        System.out.println("Decomposition Start - " + parts.size() + " parts, " + cutOperations + " operations kept on one part of their machines, " +
+                           rounds + " rounds of " + iterationsPerRound + " iterations, seed " + seed);
+        metrics.start();
+        SolverEvents.run("Decomposition", problem, current, temperature, temperature * Math.pow(coolingRate, iterationsPerRound * rounds),
+                         coolingRate, (long) iterationsPerRound * rounds, parts.size());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parts.size(), Runtime.getRuntime().availableProcessors()));
+        int rejected = 0;
+        try {
+            for (int round = 0; round < rounds; round++) {
+                double roundTemperature = temperature * Math.pow(coolingRate, (double) round * iterationsPerRound);
+                List<Callable<SubProblem>> tasks = new ArrayList<>();
+                for (int part = 0; part < parts.size(); part++) {
+                    int p = part;
+                    long partSeed = seeds.nextLong();
+                    Solution schedule = current;
+                    tasks.add(() -> solvePart(p, schedule, roundTemperature, partSeed));
+                }
+                SubProblem[] results = new SubProblem[parts.size()];
+                Solution[] partBest = new Solution[parts.size()];
+                List<Future<SubProblem>> futures = pool.invokeAll(tasks);
+                for (int part = 0; part < parts.size(); part++) {
+                    results[part] = futures.get(part).get();
+                    partBest[part] = results[part].best.toSolution();
+                }
+
+                /* all the parts at once, then one by one when their orders close a cycle together */
+                boolean[] accepted = new boolean[parts.size()];
+                Arrays.fill(accepted, true);
+                Solution merged = merge(current, results, partBest, accepted, annealing);
+                if (merged == null) {
+                    Arrays.fill(accepted, false);
+                    for (int part = 0; part < parts.size(); part++) {
+                        accepted[part] = true;
+                        Solution candidate = merge(current, results, partBest, accepted, annealing);
+                        if (candidate == null) {
+                            accepted[part] = false;
+                            rejected++;
+                        } else {
+                            merged = candidate;
+                        }
+                    }
+                }
+                if (merged != null) current = merged;
+                if (current.getObjectiveValue() > best.getObjectiveValue()) {
+                    best = current.snapshot();
+                    SolverEvents.newBest((long) (round + 1) * iterationsPerRound, roundTemperature, best);
+                }
+                metrics.recordTrajectory((long) (round + 1) * iterationsPerRound, roundTemperature, current.getObjectiveValue(), best.getObjectiveValue());
+                SolverEvents.progress((long) (round + 1) * iterationsPerRound, roundTemperature, current.getObjectiveValue(), best.getObjectiveValue(), metrics);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A part of the decomposition failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            metrics.stop();
+        }
+
+        System.out.println("Decomposition End - Best Solution Found: " + String.format("%.2f", best.getObjectiveValue()) +
+                           " - Parts left out of a merge: " + rejected);
+        System.out.println(metrics.summary());
+        return best.toSolution();
+    }
+
+    /* Sub-problem of a part from the current schedule, annealed from the batches the schedule has on the machines of the part */
+    private SubProblem solvePart(int part, Solution current, double temp, long partSeed) {
+        SubProblem sub = new SubProblem();
+        sub.problem = new Problem(problem.getHorizon());
+        for (Machine m : parts.get(part)) {
+            sub.problem.addMachine(new Machine(m.getId(), m.getCapacity(), m.getSetupTime(), m.getRemovalTime(), m.getInterBatchDelay(),
+                                               new ArrayList<>(m.getQualifiedRecipes())));
+        }
+        Operation[] copies = new Operation[problem.getOperationCount()];
+        for (Job job : problem.getJobs()) {
+            Job copy = null;
+            List<Operation> ops = job.getOperations();
+            for (int i = 0; i < ops.size(); i++) {
+                Operation op = ops.get(i);
+                if (operationPart[op.getGlobalIndex()] != part) {
+                    if (copy != null) sub.problem.addJob(copy);
+                    copy = null;
+                    continue;
+                }
+                if (copy == null) {
+                    int release = job.getReleaseDate();
+                    if (i > 0) {
+                        Operation previous = ops.get(i - 1);
+                        int start = current.getStartTime(previous);
+                        if (start >= 0) release = Math.max(release, start + previous.getProcessingTime() + previous.getMinTimeLag());
+                    }
+                    copy = new Job(job.getId(), release, job.getPriority(), job.getWaferCount());
+                }
+                Operation opCopy = new Operation(op.getId(), copy, copy.getOperations().size(), op.getProcessingTime(), op.getRecipe(),
+                                                 eligibleMachines.get(op.getGlobalIndex()));
+                opCopy.setTimeLags(op.getMinTimeLag(), op.getMaxTimeLag());
+                copy.addOperation(opCopy);
+                copies[op.getGlobalIndex()] = opCopy;
+            }
+            if (copy != null) sub.problem.addJob(copy);
+        }
+        sub.operations = new Operation[sub.problem.getOperationCount()];
+        for (Operation op : problem.getOperations()) {
+            Operation copy = copies[op.getGlobalIndex()];
+            if (copy != null) sub.operations[copy.getGlobalIndex()] = op;
+        }
+
+        /* batches of the schedule on the machines of the part. The operations planned on another part, and the ones after them in their sub-job,
+           are inserted again by the PBIA after the batches kept so the orders stay acyclic */
+        boolean[] kept = new boolean[sub.problem.getOperationCount()];
+        for (Job job : sub.problem.getJobs()) {
+            for (Operation op : job.getOperations()) {
+                Batch batch = current.getBatchForOperation(sub.operations[op.getGlobalIndex()]);
+                if (batch == null || machinePart[problem.getMachine(batch.getMachineId()).getIndex()] != part) break;
+                kept[op.getGlobalIndex()] = true;
+            }
+        }
+        Solution solution = new Solution(sub.problem);
+        solution.setNow(current.getNow());
+        for (Machine m : parts.get(part)) {
+            for (Batch batch : current.getMachineSequence(m.getId())) {
+                Batch copy = new Batch(batch.getId(), m.getId(), solution.getMachineSequence(m.getId()).size());
+                for (Operation op : batch.getOperations()) {
+                    Operation opCopy = copies[op.getGlobalIndex()];
+                    if (opCopy != null && kept[opCopy.getGlobalIndex()]) copy.addOperation(opCopy);
+                }
+                if (copy.getOperations().isEmpty()) continue;
+                copy.setFrozenStart(batch.getFrozenStart());
+                solution.addBatch(copy);
+            }
+        }
+        List<Job> unbatched = new ArrayList<>();
+        for (Job job : sub.problem.getJobs()) {
+            for (Operation op : job.getOperations()) {
+                if (solution.getBatchForOperation(op) == null) {
+                    unbatched.add(job);
+                    break;
+                }
+            }
+        }
+        new InitialSolution(sub.problem).insert(solution, unbatched);
+
+        SimulatedAnnealing annealing = new SimulatedAnnealing(sub.problem, temp, coolingRate, iterationsPerRound, partSeed);
+        annealing.setMetrics(metrics);
+        DisjunctiveGraph graph = annealing.schedule(solution);
+        if (graph == null) {
+            throw new IllegalStateException("The orders of part " + part + " contain a cycle");
+        }
+        sub.best = solution.snapshot();
+        for (int iter = 0; iter < iterationsPerRound; iter++) {
+            int outcome = annealing.iterate(solution, graph, temp);
+            if (outcome == SimulatedAnnealing.ACCEPTED && solution.getObjectiveValue() > sub.best.getObjectiveValue()) {
+                sub.best = solution.snapshot();
+            }
+            temp *= coolingRate;
+        }
+        return sub;
+    }
+
+    /* Solution of the whole problem with the batches of the accepted parts and the ones of the current schedule on the other machines,
+       scheduled and evaluated, or null when the batches depend on each other through their jobs. The batches created by two parts with the
+       same id are renumbered */
+    private Solution merge(Solution current, SubProblem[] results, Solution[] partBest, boolean[] accepted, SimulatedAnnealing annealing) {
+        int nextId = current.getNextBatchId();
+        for (int part = 0; part < parts.size(); part++) {
+            if (accepted[part]) nextId = Math.max(nextId, partBest[part].getNextBatchId());
+        }
+        Set<Integer> used = new HashSet<>();
+        List<List<Batch>> sequences = new ArrayList<>();
+        for (Machine m : problem.getMachines()) {
+            int part = machinePart[m.getIndex()];
+            boolean fromPart = accepted[part];
+            List<Batch> sequence = new ArrayList<>();
+            for (Batch batch : fromPart ? partBest[part].getMachineSequence(m.getId()) : current.getMachineSequence(m.getId())) {
+                Batch copy = new Batch(used.add(batch.getId()) ? batch.getId() : nextId++, m.getId(), sequence.size());
+                for (Operation op : batch.getOperations()) copy.addOperation(fromPart ? results[part].operations[op.getGlobalIndex()] : op);
+                copy.setFrozenStart(batch.getFrozenStart());
+                sequence.add(copy);
+            }
+            sequences.add(sequence);
+        }
+        Solution merged = build(sequences, current.getNow());
+        if (annealing.schedule(merged) != null) return merged;
+
+        /* the release dates of a part come from the previous schedule, so two parts exchanging jobs both ways may order their machines
+           in a cycle: the orders are mended and the parts only left out when their batches wait for each other */
+        sequences = reorder(sequences);
+        if (sequences == null) return null;
+        merged = build(sequences, current.getNow());
+        return annealing.schedule(merged) == null ? null : merged;
+    }
+
+    private Solution build(List<List<Batch>> sequences, int now) {
+        Solution solution = new Solution(problem);
+        solution.setNow(now);
+        for (List<Batch> sequence : sequences) {
+            for (Batch batch : sequence) {
+                Batch copy = new Batch(batch.getId(), batch.getMachineId(), solution.getMachineSequence(batch.getMachineId()).size());
+                for (Operation op : batch.getOperations()) copy.addOperation(op);
+                copy.setFrozenStart(batch.getFrozenStart());
+                solution.addBatch(copy);
+            }
+        }
+        return solution;
+    }
+
+    /* Machine orders as close as possible to the given ones without cycle: the batches are taken in the order of their machine as long as
+       the batches of the previous operations of their jobs are already taken, and when every machine waits, the first batch that does not wait
+       goes ahead of its machine. Null when every batch left waits for another one */
+    private List<List<Batch>> reorder(List<List<Batch>> sequences) {
+        Batch[] batchOf = new Batch[problem.getOperationCount()];
+        Map<Batch, Integer> waiting = new IdentityHashMap<>();
+        int total = 0;
+        for (List<Batch> sequence : sequences) {
+            for (Batch batch : sequence) {
+                for (Operation op : batch.getOperations()) batchOf[op.getGlobalIndex()] = batch;
+                total++;
+            }
+        }
+        Map<Batch, List<Batch>> next = new IdentityHashMap<>();
+        for (List<Batch> sequence : sequences) {
+            for (Batch batch : sequence) {
+                Set<Batch> previous = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (Operation op : batch.getOperations()) {
+                    if (op.getIndex() == 0) continue;
+                    Batch before = batchOf[op.getJob().getOperations().get(op.getIndex() - 1).getGlobalIndex()];
+                    if (before != null && before != batch && previous.add(before)) next.computeIfAbsent(before, b -> new ArrayList<>()).add(batch);
+                }
+                waiting.put(batch, previous.size());
+            }
+        }
+
+        List<List<Batch>> orders = new ArrayList<>();
+        List<List<Batch>> left = new ArrayList<>();
+        for (List<Batch> sequence : sequences) {
+            orders.add(new ArrayList<>());
+            left.add(new LinkedList<>(sequence));
+        }
+        int taken = 0;
+        while (taken < total) {
+            boolean progress = false;
+            for (int m = 0; m < sequences.size(); m++) {
+                List<Batch> queue = left.get(m);
+                while (!queue.isEmpty() && waiting.get(queue.get(0)) == 0) {
+                    take(queue.remove(0), orders.get(m), waiting, next);
+                    taken++;
+                    progress = true;
+                }
+            }
+            if (progress) continue;
+            int bestMachine = -1;
+            int bestDepth = Integer.MAX_VALUE;
+            for (int m = 0; m < sequences.size(); m++) {
+                int depth = 0;
+                for (Batch batch : left.get(m)) {
+                    if (depth >= bestDepth) break;
+                    if (waiting.get(batch) == 0) {
+                        bestMachine = m;
+                        bestDepth = depth;
+                        break;
+                    }
+                    depth++;
+                }
+            }
+            if (bestMachine < 0) return null;
+            take(left.get(bestMachine).remove(bestDepth), orders.get(bestMachine), waiting, next);
+            taken++;
+        }
+        return orders;
+    }
+
+    private void take(Batch batch, List<Batch> order, Map<Batch, Integer> waiting, Map<Batch, List<Batch>> next) {
+        order.add(batch);
+        for (Batch after : next.getOrDefault(batch, Collections.emptyList())) waiting.merge(after, -1, Integer::sum);
+    }
+}
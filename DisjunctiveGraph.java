@@ -1,67 +1,581 @@
 import java.util.*;
 
+/* Disjunctive graph of a solution as described in the article: every non empty batch is a node, arcs carry the minimal delay between the start of two batches.
+   - job arcs: the batch of an operation precedes the batch of the next operation of the job by its processing time and min time lag
+   - machine arcs: consecutive batches of a machine are separated by the processing time and the inter batch delay
+   - max time lag arcs: going backward with a negative weight, the next operation of a job cannot start too late after the previous one
+   The start times are the longest paths from the release dates */
 public class DisjunctiveGraph {
+    private static final Comparator<Batch> BY_START = Comparator.comparingInt(Batch::getStartTime).thenComparingInt(Batch::getId);
+    /* Start of a batch whose start time may decrease, not known until the propagation reaches it */
+    private static final int UNSET = Integer.MIN_VALUE;
+
     private Solution solution;
     private Problem problem;
-    
+
+    /* Graph storage reused from one call to the next, the arcs of a node are stored in [arcStart[node], arcEnd[node]) */
+    private Batch[] nodes;
+    private int[] release;
+    private int[] start;
+    private int[] inDegree;
+    private int[] arcStart;
+    private int[] arcEnd;
+    private int[] arcTarget;
+    private int[] arcWeight;
+    private boolean[] arcMaxLag;
+    private int[] queue;
+    private int[] visits;
+    private boolean[] queued;
+    private int nodeCount;
+    private int maxLagArcCount;
+    private boolean maxLagsEnforced;
+
+    /* State of the incremental propagation: the machine sequences are valid once a full computation has been done. The batches reached by a
+       propagation are listed in reached, the start times it computes are only written to the solution once it succeeded */
+    private boolean sequencesReady;
+    private PriorityQueue<Batch> worklist;
+    private List<Batch> reached;
+    private int epoch;
+    /* Number of arcs of the path giving the start returned by the last earliestStart(), and slot of the predecessor ending it (-1 for none) */
+    private int pulledLength;
+    private int pulledParent;
+
+    /* State of the graph on every batch, indexed by Batch.getSlot(): node of the batch in the last full computation, slots of the previous and
+       next non empty batches of its machine (-1 for none). The links are journaled by the solution so a rolled back move leaves the links the
+       start times were computed with. Then the state of the propagation: the epoch of the last one reaching the batch, the start time it
+       computed, the number of arcs of the path giving that time and the predecessor it comes from, and whether the batch waits in the worklist */
+    private int[] slotNode = new int[0];
+    private int[] linkPrevious = new int[0];
+    private int[] linkNext = new int[0];
+    private int[] slotMark = new int[0];
+    private int[] label = new int[0];
+    private int[] pathLength = new int[0];
+    private int[] parent = new int[0];
+    private boolean[] slotQueued = new boolean[0];
+
+    /* Tails of the batches in the last computeSlack(), indexed by Batch.getSlot() and valid until the solution changes */
+    private int[] tails = new int[0];
+    private int makespan;
+
     public DisjunctiveGraph(Problem problem, Solution solution) {
         this.problem = problem;
         this.solution = solution;
+        this.nodes = new Batch[0];
+        this.arcTarget = new int[0];
+        this.maxLagsEnforced = true;
+        this.worklist = new PriorityQueue<>(BY_START);
+        this.reached = new ArrayList<>();
     }
-    
-    /* Calcul of the longest path in the graph to know when every operation can start */
+
+    /* Calcul of the longest path in the graph to know when every operation can start.
+       Returns false when the machine and job orders form a cycle or when the max time lags cannot be respected, the start times of the solution are then left untouched */
     public boolean computeLongestPaths() {
-        Map<Integer, List<Batch>> machineBatches = new HashMap<>();
-        for (Batch batch : solution.getBatches()) {
-            if (!batch.getOperations().isEmpty()) {
-                machineBatches.computeIfAbsent(batch.getMachineId(), k -> new ArrayList<>()).add(batch);
-            }
-        }
-        
-        /* Order every batches on every machine based on their position */
-        for (List<Batch> batches : machineBatches.values()) {
-            batches.sort(Comparator.comparingInt(Batch::getPosition));
-        }
-        /* Calcul of every begin time with 10 iterations to spread time rules */
-        for (int iteration = 0; iteration < 10; iteration++) {
-            /* Verification of the rules on every machines*/
-            for (Map.Entry<Integer, List<Batch>> entry : machineBatches.entrySet()) {
-                int machineId = entry.getKey();
-                Machine machine = problem.getMachine(machineId);
-                if (machine == null) continue;
-                
-                List<Batch> orderedBatches = entry.getValue();
-                int machineTime = 0;
-                
-                for (Batch batch : orderedBatches) {
-                    int earliestBatchStart = machineTime;
-                    
-                    for (Operation op : batch.getOperations()) {
-                        int jobReady = op.getJob().getReleaseDate();
-                        
-                        if (op.getIndex() > 0) {
-                            Operation prevOp = op.getJob().getOperations().get(op.getIndex() - 1);
-                            int prevStart = solution.getStartTime(prevOp);
-                            if (prevStart >= 0) {
-                                jobReady = Math.max(jobReady, prevStart + prevOp.getProcessingTime() + prevOp.getMinTimeLag());
-                            }
-                        }
-                        
-                        earliestBatchStart = Math.max(earliestBatchStart, jobReady);
-                    }
-                    
-                    batch.setStartTime(earliestBatchStart);
-                    for (Operation op : batch.getOperations()) {
-                        solution.setStartTime(op, earliestBatchStart);
+        SolverEvents.LongestPaths event = new SolverEvents.LongestPaths();
+        event.begin();
+        boolean feasible = longestPaths();
+        if (event.shouldCommit()) {
+            event.nodes = nodeCount;
+            event.maxLagsEnforced = maxLagsEnforced;
+            event.feasible = feasible;
+            event.commit();
+        }
+        return feasible;
+    }
+
+    private boolean longestPaths() {
+        buildGraph();
+
+        /* Single pass in topological order over the job and machine arcs, a frozen batch keeps the time it started at */
+        int head = 0;
+        int tail = 0;
+        for (int u = 0; u < nodeCount; u++) {
+            start[u] = release[u];
+            if (inDegree[u] == 0) queue[tail++] = u;
+        }
+        while (head < tail) {
+            int u = queue[head++];
+            for (int a = arcStart[u]; a < arcEnd[u]; a++) {
+                if (arcMaxLag[a]) continue;
+                int v = arcTarget[a];
+                if (!nodes[v].isFrozen()) start[v] = Math.max(start[v], start[u] + arcWeight[a]);
+                if (--inDegree[v] == 0) queue[tail++] = v;
+            }
+        }
+        /* Some batches were never released: the job and machine orders contain a cycle */
+        if (tail < nodeCount) return false;
+
+        if (maxLagArcCount > 0 && violatesMaxLag() && !correctLabels()) return false;
+
+        for (int u = 0; u < nodeCount; u++) {
+            solution.setBatchStartTime(nodes[u], start[u]);
+        }
+        return true;
+    }
+
+    private boolean violatesMaxLag() {
+        for (int u = 0; u < nodeCount; u++) {
+            for (int a = arcStart[u]; a < arcEnd[u]; a++) {
+                if (arcMaxLag[a] && start[u] + arcWeight[a] > start[arcTarget[a]]) return true;
+            }
+        }
+        return false;
+    }
+
+    /* Label correcting pass over every arc starting from the topological start times, a batch delayed by a max time lag pushes back its successors.
+       A node relaxed more often than there are nodes lies on a positive cycle, so the time lags are infeasible */
+    private boolean correctLabels() {
+        int head = 0;
+        int size = 0;
+        for (int u = 0; u < nodeCount; u++) {
+            queue[size++] = u;
+            queued[u] = true;
+            visits[u] = 0;
+        }
+        while (size > 0) {
+            int u = queue[head];
+            head = (head + 1) % nodeCount;
+            size--;
+            queued[u] = false;
+            if (++visits[u] > nodeCount) return false;
+            for (int a = arcStart[u]; a < arcEnd[u]; a++) {
+                int v = arcTarget[a];
+                if (start[u] + arcWeight[a] > start[v] && !nodes[v].isFrozen()) {
+                    start[v] = start[u] + arcWeight[a];
+                    if (!queued[v]) {
+                        queue[(head + size) % nodeCount] = v;
+                        size++;
+                        queued[v] = true;
                     }
-                    
-                    /* updating the requiered time for the machine to perform every task */
-                    machineTime = earliestBatchStart + batch.getProcessingTime() + machine.getInterBatchDelay();
                 }
             }
         }
-        /* Boolean to check if the algorythm performed well */
         return true;
     }
-    
-}
\ No newline at end of file
+
+    private void buildGraph() {
+        List<Batch> batches = solution.getBatches();
+        ensureNodeCapacity(batches.size());
+        ensureSlotCapacity(solution.getSlotCount());
+
+        /* Every non empty batch becomes a node, with room for one machine arc and two arcs (job and max lag) per operation */
+        nodeCount = 0;
+        int arcCount = 0;
+        for (Batch batch : batches) {
+            if (batch.getOperations().isEmpty()) continue;
+            int u = nodeCount++;
+            nodes[u] = batch;
+            slotNode[batch.getSlot()] = u;
+            arcStart[u] = arcCount;
+            arcEnd[u] = arcCount;
+            arcCount += 1 + 2 * batch.getOperations().size();
+            inDegree[u] = 0;
+            /* a frozen batch keeps the time it started at, the others cannot start before the time of the last replanning */
+            int ready = solution.getNow();
+            for (Operation op : batch.getOperations()) {
+                ready = Math.max(ready, op.getJob().getReleaseDate());
+            }
+            release[u] = batch.isFrozen() ? batch.getFrozenStart() : ready;
+        }
+        ensureArcCapacity(arcCount);
+
+        /* Machine arcs between consecutive non empty batches of the sequences kept by the solution */
+        maxLagArcCount = 0;
+        for (Machine machine : problem.getMachines()) {
+            int delay = machine.getInterBatchDelay();
+            Batch previous = null;
+            for (Batch batch : solution.getMachineSequence(machine.getId())) {
+                if (batch.getOperations().isEmpty()) continue;
+                setPrevious(batch, previous);
+                if (previous != null) {
+                    setNext(previous, batch);
+                    addArc(slotNode[previous.getSlot()], slotNode[batch.getSlot()], previous.getProcessingTime() + delay, false);
+                }
+                previous = batch;
+            }
+            if (previous != null) setNext(previous, null);
+        }
+
+        /* Job arcs from the batch of an operation to the batch of the next one, and the max time lag arc going back when they are enforced */
+        for (int u = 0; u < nodeCount; u++) {
+            for (Operation op : nodes[u].getOperations()) {
+                List<Operation> jobOps = op.getJob().getOperations();
+                if (op.getIndex() + 1 >= jobOps.size()) continue;
+                Batch next = solution.getBatchForOperation(jobOps.get(op.getIndex() + 1));
+                if (next == null || next.getOperations().isEmpty()) continue;
+                int v = slotNode[next.getSlot()];
+                addArc(u, v, op.getProcessingTime() + op.getMinTimeLag(), false);
+                /* a frozen batch has already started, a late successor cannot push it back any more */
+                if (maxLagsEnforced && op.getMaxTimeLag() < Integer.MAX_VALUE && !nodes[u].isFrozen()) {
+                    addArc(v, u, -(op.getProcessingTime() + op.getMaxTimeLag()), true);
+                    maxLagArcCount++;
+                }
+            }
+        }
+        solution.clearTouched();
+        sequencesReady = true;
+    }
+
+    /* Incremental version of computeLongestPaths() to call after a move, over the same arcs including the max time lag arcs when they are enforced.
+       The start of a batch can only decrease when every path that gave its start time went through an arc changed by the move. So the batches
+       whose incoming arcs changed (touched batches, their job successors and predecessors, batches with a new previous batch on a touched machine)
+       and every batch reached from them by arcs that were tight in the previous schedule are computed again from their predecessors. The other
+       start times can only grow, they are pushed further by label correcting when a predecessor ends later.
+       A batch computed again from a path going through itself, or from a path of more arcs than there are batches, lies on a positive cycle
+       closed by the move or by the max time lags. False is returned as the full computation does, and the start times of the solution are
+       left untouched */
+    public boolean propagate() {
+        if (!sequencesReady) return computeLongestPaths();
+
+        ensureSlotCapacity(solution.getSlotCount());
+        epoch++;
+        worklist.clear();
+        reached.clear();
+        for (int i = 0; i < solution.getTouchedMachineCount(); i++) {
+            refreshMachine(solution.getTouchedMachine(i));
+        }
+        List<Batch> touched = solution.getTouchedBatches();
+        for (Batch batch : touched) {
+            if (batch.getOperations().isEmpty()) continue;
+            reset(batch);
+            if (nextOf(batch) != null) reset(nextOf(batch));
+            for (Operation op : batch.getOperations()) {
+                List<Operation> jobOps = op.getJob().getOperations();
+                if (op.getIndex() + 1 < jobOps.size()) reset(solution.getBatchForOperation(jobOps.get(op.getIndex() + 1)));
+                if (maxLagsEnforced && op.getIndex() > 0) reset(solution.getBatchForOperation(jobOps.get(op.getIndex() - 1)));
+            }
+        }
+        /* the list grows while it is walked, every batch reset has its tight successors reset in turn */
+        for (int i = 0; i < reached.size(); i++) {
+            visitSuccessors(reached.get(i), true);
+        }
+        for (Batch batch : reached) {
+            slotQueued[batch.getSlot()] = true;
+            worklist.add(batch);
+        }
+
+        /* The worklist is ordered by the previous start times, which are left as they are until the end, so a batch usually waits for all
+           its predecessors and is computed once */
+        int limit = solution.getBatches().size();
+        while (!worklist.isEmpty()) {
+            Batch batch = worklist.poll();
+            int slot = batch.getSlot();
+            slotQueued[slot] = false;
+            int earliest = earliestStart(batch);
+            if (label[slot] == UNSET || earliest > label[slot]) {
+                label[slot] = earliest;
+                boolean again = parent[slot] >= 0;
+                pathLength[slot] = pulledLength;
+                parent[slot] = pulledParent;
+                if (pulledLength > limit || again && closesCycle(slot, limit)) return false;
+                visitSuccessors(batch, false);
+            }
+        }
+
+        for (Batch batch : reached) {
+            if (label[batch.getSlot()] != batch.getStartTime()) solution.setBatchStartTime(batch, label[batch.getSlot()]);
+        }
+        /* an operation that just joined a batch takes the time of the batch even when that one did not change */
+        for (Batch batch : touched) {
+            if (!batch.getOperations().isEmpty() && solution.contains(batch)) solution.setBatchStartTime(batch, batch.getStartTime());
+        }
+        solution.clearTouched();
+        return true;
+    }
+
+    /* Start of a batch given the starts computed so far for its predecessors: time of the last replanning, release dates, previous batch of the
+       machine, previous operations of the jobs and, with enforced max lags, next operations of the jobs. A predecessor not computed yet is
+       left out, the batch is computed again once it is. Sets pulledLength to the number of arcs of the path giving the start.
+       A frozen batch keeps the time it started at, as in the full computation */
+    private int earliestStart(Batch batch) {
+        pulledLength = 0;
+        pulledParent = -1;
+        if (batch.isFrozen()) return batch.getFrozenStart();
+        int earliest = solution.getNow();
+        for (Operation op : batch.getOperations()) {
+            earliest = Math.max(earliest, op.getJob().getReleaseDate());
+        }
+        Batch previous = previousOf(batch);
+        if (previous != null) {
+            earliest = pull(previous, previous.getProcessingTime() + machineOf(batch.getMachineId()).getInterBatchDelay(), earliest);
+        }
+        for (Operation op : batch.getOperations()) {
+            List<Operation> jobOps = op.getJob().getOperations();
+            if (op.getIndex() > 0) {
+                Operation prevOp = jobOps.get(op.getIndex() - 1);
+                Batch prevBatch = solution.getBatchForOperation(prevOp);
+                if (prevBatch != null && !prevBatch.getOperations().isEmpty()) {
+                    earliest = pull(prevBatch, prevOp.getProcessingTime() + prevOp.getMinTimeLag(), earliest);
+                }
+            }
+            if (maxLagsEnforced && op.getMaxTimeLag() < Integer.MAX_VALUE && op.getIndex() + 1 < jobOps.size()) {
+                Batch nextBatch = solution.getBatchForOperation(jobOps.get(op.getIndex() + 1));
+                if (nextBatch != null && !nextBatch.getOperations().isEmpty()) {
+                    earliest = pull(nextBatch, -(op.getProcessingTime() + op.getMaxTimeLag()), earliest);
+                }
+            }
+        }
+        return earliest;
+    }
+
+    /* Start a batch gets from one of its predecessors when it is later than the start found so far, keeping pulledLength in step */
+    private int pull(Batch predecessor, int weight, int earliest) {
+        int start = startOf(predecessor);
+        if (start == UNSET || start + weight <= earliest) return earliest;
+        pulledLength = lengthOf(predecessor) + 1;
+        pulledParent = predecessor.getSlot();
+        return start + weight;
+    }
+
+    /* A batch computed again may now come from a path through itself. Following the predecessors the starts come from back to the batch
+       finds a cycle every arc of which was tight when it was followed, so a positive one. It is only looked for on a batch computed more than
+       once, a positive cycle keeps raising the starts around it. The length of the paths bounds it as it bounds the propagation */
+    private boolean closesCycle(int slot, int limit) {
+        int current = parent[slot];
+        for (int steps = 0; current >= 0 && slotMark[current] == epoch && steps <= limit; steps++) {
+            if (current == slot) return true;
+            current = parent[current];
+        }
+        return false;
+    }
+
+    /* Arcs leaving a batch, the same ones the full computation builds. When collecting, the batches reached by an arc that was tight in the
+       previous schedule are reset. Otherwise a batch whose start is pushed further by the new start of this one is queued */
+    private void visitSuccessors(Batch batch, boolean collecting) {
+        Batch next = nextOf(batch);
+        if (next != null) follow(batch, next, batch.getProcessingTime() + machineOf(batch.getMachineId()).getInterBatchDelay(), collecting);
+        for (Operation op : batch.getOperations()) {
+            List<Operation> jobOps = op.getJob().getOperations();
+            if (op.getIndex() + 1 < jobOps.size()) {
+                Batch successor = solution.getBatchForOperation(jobOps.get(op.getIndex() + 1));
+                if (successor != null && !successor.getOperations().isEmpty()) {
+                    follow(batch, successor, op.getProcessingTime() + op.getMinTimeLag(), collecting);
+                }
+            }
+            if (maxLagsEnforced && op.getIndex() > 0) {
+                Operation prevOp = jobOps.get(op.getIndex() - 1);
+                Batch predecessor = solution.getBatchForOperation(prevOp);
+                if (predecessor != null && !predecessor.getOperations().isEmpty() && prevOp.getMaxTimeLag() < Integer.MAX_VALUE) {
+                    follow(batch, predecessor, -(prevOp.getProcessingTime() + prevOp.getMaxTimeLag()), collecting);
+                }
+            }
+        }
+    }
+
+    private void follow(Batch from, Batch to, int weight, boolean collecting) {
+        if (to.isFrozen()) return;
+        if (collecting) {
+            if (from.getStartTime() + weight == to.getStartTime()) reset(to);
+        } else if (startOf(from) + weight > startOf(to)) {
+            /* the queued flag is only valid for the batches this propagation reached, a failed one leaves some set */
+            if (slotMark[to.getSlot()] != epoch) reach(to, to.getStartTime());
+            if (!slotQueued[to.getSlot()]) {
+                slotQueued[to.getSlot()] = true;
+                worklist.add(to);
+            }
+        }
+    }
+
+    /* A batch whose start may decrease, computed again from its predecessors */
+    private void reset(Batch batch) {
+        if (batch == null || batch.getOperations().isEmpty() || batch.isFrozen() || slotMark[batch.getSlot()] == epoch) return;
+        reach(batch, UNSET);
+    }
+
+    private void reach(Batch batch, int start) {
+        int slot = batch.getSlot();
+        slotMark[slot] = epoch;
+        label[slot] = start;
+        pathLength[slot] = 0;
+        parent[slot] = -1;
+        slotQueued[slot] = false;
+        reached.add(batch);
+    }
+
+    /* Start of a batch in the propagation in progress, the previous one for a batch it has not reached */
+    private int startOf(Batch batch) {
+        return slotMark[batch.getSlot()] == epoch ? label[batch.getSlot()] : batch.isFrozen() ? batch.getFrozenStart() : batch.getStartTime();
+    }
+
+    private int lengthOf(Batch batch) {
+        return slotMark[batch.getSlot()] == epoch ? pathLength[batch.getSlot()] : 0;
+    }
+
+    /* Link again the non empty batches of a machine from its sequence in the solution, a batch whose previous batch changed has to be rescheduled */
+    private void refreshMachine(int machineId) {
+        Batch previous = null;
+        for (Batch batch : solution.getMachineSequence(machineId)) {
+            if (batch.getOperations().isEmpty()) continue;
+            /* the slots are compared, a link to a removed batch resolves to no batch but must not be kept for the batch reusing its slot */
+            if (linkPrevious[batch.getSlot()] != (previous == null ? -1 : previous.getSlot())) {
+                setPrevious(batch, previous);
+                reset(batch);
+            }
+            if (previous != null) setNext(previous, batch);
+            previous = batch;
+        }
+        if (previous != null) setNext(previous, null);
+    }
+
+    /* Previous and next non empty batches of a machine as linked by the last computation */
+    private Batch previousOf(Batch batch) {
+        int slot = linkPrevious[batch.getSlot()];
+        return slot < 0 ? null : solution.getBatchInSlot(slot);
+    }
+
+    private Batch nextOf(Batch batch) {
+        int slot = linkNext[batch.getSlot()];
+        return slot < 0 ? null : solution.getBatchInSlot(slot);
+    }
+
+    private void setPrevious(Batch batch, Batch previous) {
+        int slot = batch.getSlot();
+        int linked = previous == null ? -1 : previous.getSlot();
+        if (linkPrevious[slot] == linked) return;
+        solution.logLink(this, UndoLog.MACHINE_PREVIOUS, slot, linkPrevious[slot]);
+        linkPrevious[slot] = linked;
+    }
+
+    private void setNext(Batch batch, Batch next) {
+        int slot = batch.getSlot();
+        int linked = next == null ? -1 : next.getSlot();
+        if (linkNext[slot] == linked) return;
+        solution.logLink(this, UndoLog.MACHINE_NEXT, slot, linkNext[slot]);
+        linkNext[slot] = linked;
+    }
+
+    /* Puts back a link journaled by the solution when the move that changed it is rolled back */
+    void restoreLink(int kind, int slot, int linked) {
+        if (kind == UndoLog.MACHINE_PREVIOUS) linkPrevious[slot] = linked;
+        else linkNext[slot] = linked;
+    }
+
+    private Machine machineOf(int machineId) {
+        Machine machine = problem.getMachine(machineId);
+        if (machine == null) {
+            throw new IllegalStateException("Batch scheduled on unknown machine " + machineId);
+        }
+        return machine;
+    }
+
+    /* Longest path from the start of every batch to the end of the last operation it delays through the machine and job arcs, once the
+       solution is scheduled. The max time lag arcs only pull start times later, they are left out. With the start times it gives the slack of
+       a batch, how long it can be delayed before the work depending on it ends later. Batches are taken by decreasing start time, as all the
+       successors of a batch start after it. Returns the makespan */
+    public int computeSlack() {
+        List<Batch> batches = solution.getBatches();
+        if (tails.length < solution.getSlotCount()) tails = new int[solution.getSlotCount() * 2];
+        List<Batch> order = new ArrayList<>(batches.size());
+        for (Batch batch : batches) {
+            if (!batch.getOperations().isEmpty()) order.add(batch);
+        }
+        order.sort(BY_START);
+        makespan = 0;
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Batch batch = order.get(i);
+            int tail = batch.getProcessingTime();
+            Batch next = nextOf(batch);
+            if (next != null) {
+                tail = Math.max(tail, batch.getProcessingTime() + machineOf(batch.getMachineId()).getInterBatchDelay() + tails[next.getSlot()]);
+            }
+            for (Operation op : batch.getOperations()) {
+                List<Operation> jobOps = op.getJob().getOperations();
+                if (op.getIndex() + 1 >= jobOps.size()) continue;
+                Batch successor = solution.getBatchForOperation(jobOps.get(op.getIndex() + 1));
+                if (successor == null || successor.getOperations().isEmpty()) continue;
+                tail = Math.max(tail, op.getProcessingTime() + op.getMinTimeLag() + tails[successor.getSlot()]);
+            }
+            tails[batch.getSlot()] = tail;
+            makespan = Math.max(makespan, batch.getStartTime() + tail);
+        }
+        return makespan;
+    }
+
+    public int getTail(Batch batch) { return tails[batch.getSlot()]; }
+    public int getMakespan() { return makespan; }
+    /* Delay of a batch that leaves the makespan as it is, 0 on a critical path */
+    public int getSlack(Batch batch) { return makespan - batch.getStartTime() - getTail(batch); }
+    /* Delay of a batch before the work depending on it ends past the horizon, negative when part of it already does and is lost for fMov */
+    public int getHorizonSlack(Batch batch) { return problem.getHorizon() - batch.getStartTime() - getTail(batch); }
+
+    /* A critical path of the last computeSlack(): from the first batch without slack, every next batch is the successor its tail goes through,
+       up to a batch ending at the makespan */
+    public List<Batch> getCriticalPath() {
+        List<Batch> path = new ArrayList<>();
+        Batch batch = null;
+        for (Batch candidate : solution.getBatches()) {
+            if (candidate.getOperations().isEmpty() || getSlack(candidate) != 0) continue;
+            if (batch == null || BY_START.compare(candidate, batch) < 0) batch = candidate;
+        }
+        while (batch != null) {
+            path.add(batch);
+            int tail = getTail(batch);
+            Batch following = null;
+            Batch next = nextOf(batch);
+            if (next != null && batch.getProcessingTime() + machineOf(batch.getMachineId()).getInterBatchDelay() + getTail(next) == tail) {
+                following = next;
+            }
+            for (Operation op : batch.getOperations()) {
+                if (following != null) break;
+                List<Operation> jobOps = op.getJob().getOperations();
+                if (op.getIndex() + 1 >= jobOps.size()) continue;
+                Batch successor = solution.getBatchForOperation(jobOps.get(op.getIndex() + 1));
+                if (successor != null && !successor.getOperations().isEmpty()
+                    && op.getProcessingTime() + op.getMinTimeLag() + getTail(successor) == tail) {
+                    following = successor;
+                }
+            }
+            batch = following;
+        }
+        return path;
+    }
+
+    /* When relaxed only the job and machine orders are checked, the max time lags are ignored */
+    public void setMaxLagsEnforced(boolean maxLagsEnforced) { this.maxLagsEnforced = maxLagsEnforced; }
+    public boolean isMaxLagsEnforced() { return maxLagsEnforced; }
+
+    private void addArc(int from, int to, int weight, boolean maxLag) {
+        int a = arcEnd[from]++;
+        arcTarget[a] = to;
+        arcWeight[a] = weight;
+        arcMaxLag[a] = maxLag;
+        if (!maxLag) inDegree[to]++;
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        if (nodes.length >= capacity) return;
+        capacity = Math.max(capacity, nodes.length * 2);
+        nodes = new Batch[capacity];
+        release = new int[capacity];
+        start = new int[capacity];
+        inDegree = new int[capacity];
+        arcStart = new int[capacity];
+        arcEnd = new int[capacity];
+        queue = new int[capacity];
+        visits = new int[capacity];
+        queued = new boolean[capacity];
+    }
+
+    private void ensureSlotCapacity(int capacity) {
+        if (slotNode.length >= capacity) return;
+        int length = slotNode.length;
+        capacity = Math.max(capacity, length * 2);
+        slotNode = Arrays.copyOf(slotNode, capacity);
+        linkPrevious = Arrays.copyOf(linkPrevious, capacity);
+        linkNext = Arrays.copyOf(linkNext, capacity);
+        slotMark = Arrays.copyOf(slotMark, capacity);
+        label = Arrays.copyOf(label, capacity);
+        pathLength = Arrays.copyOf(pathLength, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        slotQueued = Arrays.copyOf(slotQueued, capacity);
+        Arrays.fill(linkPrevious, length, capacity, -1);
+        Arrays.fill(linkNext, length, capacity, -1);
+    }
+
+    private void ensureArcCapacity(int capacity) {
+        if (arcTarget.length >= capacity) return;
+        capacity = Math.max(capacity, arcTarget.length * 2);
+        arcTarget = new int[capacity];
+        arcWeight = new int[capacity];
+        arcMaxLag = new boolean[capacity];
+    }
+}
@@ -0,0 +1,220 @@
+import java.util.*;
+
+/* Discrete event simulation of the batches of a solution on their machines, the events being taken in time order:
+   - machine free: a machine ended its batch and its inter batch delay
+   - lot ready: the lots of a batch are released and their previous operations are done, min time lags included
+   A free machine starts the next batch it can. Without dispatch rule it is the next batch of its sequence in the solution, the machine waiting
+   for it if needed, and the start times are the ones of the disjunctive graph with relaxed max lags. With a rule it is the best batch among
+   the ready ones and the sequences of the solution are set to the order the batches were started in.
+   Every batch goes through a bounded number of events, a simulation is O(n log n) in the number of batches */
+public class DispatchSimulator {
+    private static final int LOT_READY = 0;
+    private static final int MACHINE_FREE = 1;
+
+    /* Priority of a ready batch when its machine is free, the lowest value starts first. Frozen batches always start first */
+    public interface DispatchRule {
+        double priority(Batch batch, int readyTime);
+    }
+
+    /* First come first served on the time the lots of the batch are ready */
+    public static final DispatchRule FIRST_READY = (batch, readyTime) -> readyTime;
+    /* Shortest processing time first */
+    public static final DispatchRule SHORTEST_PROCESSING_TIME = (batch, readyTime) -> batch.getProcessingTime();
+    /* Fullest batch first */
+    public static final DispatchRule LARGEST_BATCH = (batch, readyTime) -> -batch.getOperations().size();
+    /* Highest priority of the lots per minute of processing first */
+    public static final DispatchRule WEIGHTED_SHORTEST_PROCESSING_TIME = (batch, readyTime) -> {
+        int weight = 0;
+        for (Operation op : batch.getOperations()) weight += op.getJob().getPriority();
+        return -(double) weight / Math.max(1, batch.getProcessingTime());
+    };
+
+    private static class Event {
+        int time;
+        int type;
+        Batch batch;
+        int machine;
+
+        Event(int time, int type, Batch batch, int machine) {
+            this.time = time;
+            this.type = type;
+            this.batch = batch;
+            this.machine = machine;
+        }
+    }
+
+    private Problem problem;
+    private Solution solution;
+    private DispatchRule rule;
+    private PriorityQueue<Event> events;
+    /* State of the batches by their index in the list of the solution */
+    private int[] ready;
+    private int[] waiting;
+    private double[] priority;
+    /* State of the machines by index */
+    private int[] freeAt;
+    private int[] head;
+    private boolean[] headReady;
+    private List<PriorityQueue<Batch>> readyBatches;
+    private List<List<Batch>> started;
+    private boolean[] toDispatch;
+    private int scheduled;
+
+    /* Start times of the batches in the order of the machine sequences. Returns false, with some batches left unscheduled, when the sequences contain a cycle */
+    public boolean simulate(Solution solution) {
+        return simulate(solution, null);
+    }
+
+    /* Start times and machine orders given by a dispatch rule, the machines and the batches themselves are kept */
+    public boolean simulate(Solution solution, DispatchRule rule) {
+        this.problem = solution.getProblem();
+        this.solution = solution;
+        this.rule = rule;
+        List<Batch> batches = solution.getBatches();
+        List<Machine> machines = problem.getMachines();
+        events = new PriorityQueue<>((e1, e2) -> e1.time != e2.time ? Integer.compare(e1.time, e2.time) : Integer.compare(e1.type, e2.type));
+        ready = new int[solution.getSlotCount()];
+        waiting = new int[solution.getSlotCount()];
+        priority = new double[solution.getSlotCount()];
+        freeAt = new int[machines.size()];
+        head = new int[machines.size()];
+        headReady = new boolean[machines.size()];
+        toDispatch = new boolean[machines.size()];
+        readyBatches = new ArrayList<>();
+        started = new ArrayList<>();
+        Arrays.fill(freeAt, Integer.MIN_VALUE);
+        for (int m = 0; m < machines.size(); m++) {
+            readyBatches.add(rule == null ? null : new PriorityQueue<>((b1, b2) -> compare(b1, b2)));
+            started.add(new ArrayList<>());
+        }
+
+        /* a frozen batch keeps the time it started at, the others cannot start before the time of the last replanning */
+        int total = 0;
+        for (Batch batch : batches) {
+            if (batch.getOperations().isEmpty()) continue;
+            total++;
+            int time = batch.isFrozen() ? batch.getFrozenStart() : solution.getNow();
+            for (Operation op : batch.getOperations()) {
+                time = Math.max(time, op.getJob().getReleaseDate());
+                Batch next = nextBatch(op);
+                if (next != null) waiting[next.getSlot()]++;
+            }
+            ready[batch.getSlot()] = time;
+        }
+        for (Machine machine : machines) {
+            skipEmpty(machine.getIndex());
+        }
+        for (Batch batch : batches) {
+            if (!batch.getOperations().isEmpty() && waiting[batch.getSlot()] == 0) lotsDone(batch, Integer.MIN_VALUE);
+        }
+
+        /* the events of a time are all applied before the free machines choose their batch, in the order of the machines */
+        scheduled = 0;
+        while (!events.isEmpty()) {
+            int time = events.peek().time;
+            while (!events.isEmpty() && events.peek().time == time) {
+                Event event = events.poll();
+                if (event.type == LOT_READY) {
+                    int m = machineIndex(event.batch);
+                    if (rule == null) headReady[m] = true; else readyBatches.get(m).add(event.batch);
+                    toDispatch[m] = true;
+                } else {
+                    toDispatch[event.machine] = true;
+                }
+            }
+            for (int m = 0; m < machines.size(); m++) {
+                if (!toDispatch[m]) continue;
+                toDispatch[m] = false;
+                if (freeAt[m] <= time) dispatch(m, time);
+            }
+        }
+
+        if (rule != null) {
+            for (Machine machine : machines) {
+                List<Batch> order = started.get(machine.getIndex());
+                for (Batch batch : solution.getMachineSequence(machine.getId())) {
+                    if (batch.getOperations().isEmpty()) order.add(batch);
+                }
+                if (order.size() == solution.getMachineSequence(machine.getId()).size()) solution.setMachineOrder(machine.getId(), order);
+            }
+        }
+        return scheduled == total;
+    }
+
+    /* Objective of a copy of the solution dispatched with a rule, the solution itself is not changed. NaN when the rule cannot schedule every batch */
+    public double whatIf(Solution solution, DispatchRule rule) {
+        Solution copy = solution.clone();
+        if (!simulate(copy, rule)) return Double.NaN;
+        copy.evaluate();
+        return copy.getObjectiveValue();
+    }
+
+    private void dispatch(int m, int time) {
+        Batch batch;
+        if (rule == null) {
+            if (!headReady[m]) return;
+            List<Batch> sequence = solution.getMachineSequence(problem.getMachines().get(m).getId());
+            batch = sequence.get(head[m]);
+            head[m]++;
+            headReady[m] = false;
+            skipEmpty(m);
+            if (head[m] < sequence.size() && waiting[sequence.get(head[m]).getSlot()] == 0) lotsDone(sequence.get(head[m]), time);
+        } else {
+            batch = readyBatches.get(m).poll();
+            if (batch == null) return;
+            started.get(m).add(batch);
+        }
+
+        int start = Math.max(time, ready[batch.getSlot()]);
+        solution.setBatchStartTime(batch, start);
+        scheduled++;
+        Machine machine = problem.getMachines().get(m);
+        freeAt[m] = start + batch.getProcessingTime() + machine.getInterBatchDelay();
+        events.add(new Event(freeAt[m], MACHINE_FREE, null, m));
+
+        for (Operation op : batch.getOperations()) {
+            Batch next = nextBatch(op);
+            if (next == null) continue;
+            int i = next.getSlot();
+            ready[i] = Math.max(ready[i], start + op.getProcessingTime() + op.getMinTimeLag());
+            if (--waiting[i] == 0) lotsDone(next, time);
+        }
+    }
+
+    /* The previous operations of the lots of a batch are all started: its ready time is known. Without rule only the next batch of a machine
+       is announced, the following ones are announced when it starts */
+    private void lotsDone(Batch batch, int time) {
+        int m = machineIndex(batch);
+        if (rule == null) {
+            List<Batch> sequence = solution.getMachineSequence(batch.getMachineId());
+            if (head[m] >= sequence.size() || sequence.get(head[m]) != batch) return;
+        } else {
+            priority[batch.getSlot()] = batch.isFrozen() ? Double.NEGATIVE_INFINITY : rule.priority(batch, ready[batch.getSlot()]);
+        }
+        events.add(new Event(Math.max(time, ready[batch.getSlot()]), LOT_READY, batch, m));
+    }
+
+    private int compare(Batch b1, Batch b2) {
+        int c = Double.compare(priority[b1.getSlot()], priority[b2.getSlot()]);
+        if (c != 0) return c;
+        c = Integer.compare(ready[b1.getSlot()], ready[b2.getSlot()]);
+        return c != 0 ? c : Integer.compare(b1.getId(), b2.getId());
+    }
+
+    private void skipEmpty(int m) {
+        List<Batch> sequence = solution.getMachineSequence(problem.getMachines().get(m).getId());
+        while (head[m] < sequence.size() && sequence.get(head[m]).getOperations().isEmpty()) head[m]++;
+    }
+
+    /* Batch of the next operation of the job, null for the last operation or an operation out of the batches */
+    private Batch nextBatch(Operation op) {
+        List<Operation> jobOps = op.getJob().getOperations();
+        if (op.getIndex() + 1 >= jobOps.size()) return null;
+        Batch next = solution.getBatchForOperation(jobOps.get(op.getIndex() + 1));
+        return next == null || next.getOperations().isEmpty() ? null : next;
+    }
+
+    private int machineIndex(Batch batch) {
+        return problem.getMachine(batch.getMachineId()).getIndex();
+    }
+}
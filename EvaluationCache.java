@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/* Bounded cache of evaluated neighbors, from the structure hash of a solution to its objective or its infeasibility. The least recently used
+   entry makes room for a new one once the capacity is reached. Entries live in parallel arrays chained by index, and clear() only moves to a
+   new generation of the buckets, so neither a lookup nor a clear allocates or walks the whole table */
+public class EvaluationCache {
+    private long[] keys;
+    private double[] objectives;
+    /* next entry of the same bucket, and the neighbours in the order of use */
+    private int[] chain;
+    private int[] older;
+    private int[] newer;
+    private int[] buckets;
+    private int[] bucketGeneration;
+    private int generation;
+    private int mask;
+    private int size;
+    private int newest;
+    private int oldest;
+
+    public EvaluationCache(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("The capacity of the cache has to be positive: " + capacity);
+        this.keys = new long[capacity];
+        this.objectives = new double[capacity];
+        this.chain = new int[capacity];
+        this.older = new int[capacity];
+        this.newer = new int[capacity];
+        int bucketCount = Integer.highestOneBit(Math.max(1, capacity) * 4 - 1);
+        this.buckets = new int[bucketCount];
+        this.bucketGeneration = new int[bucketCount];
+        this.mask = bucketCount - 1;
+        this.generation = 1;
+        this.newest = -1;
+        this.oldest = -1;
+    }
+
+    /* Entry of a key, made the most recently used, or -1 when the key is not cached */
+    public int find(long key) {
+        int bucket = (int) key & mask;
+        if (bucketGeneration[bucket] != generation) return -1;
+        for (int e = buckets[bucket]; e >= 0; e = chain[e]) {
+            if (keys[e] == key) {
+                use(e);
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isFeasible(int entry) { return !Double.isNaN(objectives[entry]); }
+    public double getObjective(int entry) { return objectives[entry]; }
+
+    public void put(long key, boolean feasible, double objective) {
+        int e = find(key);
+        if (e < 0) {
+            if (size < keys.length) {
+                e = size++;
+            } else {
+                e = oldest;
+                unlink(e);
+                removeFromBucket(e);
+            }
+            keys[e] = key;
+            int bucket = (int) key & mask;
+            if (bucketGeneration[bucket] != generation) {
+                bucketGeneration[bucket] = generation;
+                buckets[bucket] = -1;
+            }
+            chain[e] = buckets[bucket];
+            buckets[bucket] = e;
+            pushNewest(e);
+        }
+        objectives[e] = feasible ? objective : Double.NaN;
+    }
+
+    /* The entries of the previous generation are simply not reachable anymore */
+    public void clear() {
+        if (++generation == 0) {
+            Arrays.fill(bucketGeneration, 0);
+            generation = 1;
+        }
+        size = 0;
+        newest = -1;
+        oldest = -1;
+    }
+
+    public int size() { return size; }
+    public int getCapacity() { return keys.length; }
+
+    private void use(int e) {
+        if (e == newest) return;
+        unlink(e);
+        pushNewest(e);
+    }
+
+    private void pushNewest(int e) {
+        older[e] = newest;
+        newer[e] = -1;
+        if (newest >= 0) newer[newest] = e; else oldest = e;
+        newest = e;
+    }
+
+    private void unlink(int e) {
+        if (older[e] >= 0) newer[older[e]] = newer[e]; else oldest = newer[e];
+        if (newer[e] >= 0) older[newer[e]] = older[e]; else newest = older[e];
+    }
+
+    private void removeFromBucket(int e) {
+        int bucket = (int) keys[e] & mask;
+        if (buckets[bucket] == e) {
+            buckets[bucket] = chain[e];
+            return;
+        }
+        int previous = buckets[bucket];
+        while (chain[previous] != e) previous = chain[previous];
+        chain[previous] = chain[e];
+    }
+}
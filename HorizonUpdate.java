@@ -0,0 +1,31 @@
+import java.util.*;
+
+/* What happened in the fab since the last plan: the time of the replanning, the lots released since then, the operations reported
+   completed or started and the machines that went down. Operations and machines are given by their id */
+public class HorizonUpdate {
+    private int now;
+    private List<Job> newJobs;
+    private Set<Integer> completedOperations;
+    private Set<Integer> startedOperations;
+    private Set<Integer> downMachines;
+
+    public HorizonUpdate(int now) {
+        this.now = now;
+        this.newJobs = new ArrayList<>();
+        this.completedOperations = new HashSet<>();
+        this.startedOperations = new HashSet<>();
+        this.downMachines = new HashSet<>();
+    }
+
+    /* The operations of the job have to be added to it before */
+    public void addJob(Job job) { newJobs.add(job); }
+    public void complete(int operationId) { completedOperations.add(operationId); }
+    public void start(int operationId) { startedOperations.add(operationId); }
+    public void machineDown(int machineId) { downMachines.add(machineId); }
+
+    public int getNow() { return now; }
+    public List<Job> getNewJobs() { return newJobs; }
+    public boolean isCompleted(Operation op) { return completedOperations.contains(op.getId()); }
+    public boolean isStarted(Operation op) { return startedOperations.contains(op.getId()); }
+    public boolean isDown(int machineId) { return downMachines.contains(machineId); }
+}
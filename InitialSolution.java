@@ -3,116 +3,210 @@ import java.util.*;
 /* This class represent a first solution created by performing PBIA on the model, we will then perform the simulated annealign based on it*/
 public class InitialSolution {
     private Problem problem;
-    
+
+    /* Batches created by the PBIA for a machine and a recipe, in the order of their ids, with their ids and room left in plain arrays so
+       the lookups do not touch the batches. Batches only fill up during the PBIA, so a full batch stays in the list and points to a later
+       batch, the pointers being shortened on every lookup so runs of full batches are jumped over */
+    private static class CreatedBatches {
+        Batch[] batches = new Batch[8];
+        int[] ids = new int[8];
+        int[] room = new int[8];
+        int[] next = new int[8];
+        int size;
+
+        void add(Batch batch, int capacity) {
+            if (size == batches.length) {
+                batches = Arrays.copyOf(batches, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+                room = Arrays.copyOf(room, size * 2);
+                next = Arrays.copyOf(next, size * 2);
+            }
+            batches[size] = batch;
+            ids[size] = batch.getId();
+            room[size] = capacity - batch.getOperations().size();
+            next[size] = size;
+            size++;
+        }
+
+        /* Position of the first batch with an id above the given one and room left, -1 when there is none */
+        int firstOpenAfter(int batchId) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ids[middle] <= batchId) low = middle + 1; else high = middle;
+            }
+            int open = low;
+            while (open < size && room[open] <= 0) {
+                open = next[open] == open ? open + 1 : next[open];
+            }
+            for (int i = low; i < open; ) {
+                int following = next[i] == i ? i + 1 : next[i];
+                next[i] = open;
+                i = following;
+            }
+            return open < size ? open : -1;
+        }
+    }
+
     public InitialSolution(Problem problem) {
         this.problem = problem;
     }
     
     public Solution build() {
         Solution solution = new Solution(problem);
-        /* Copy and sort jobs based on the priority rules of heuristic  */
-        List<Job> sortedJobs = new ArrayList<>(problem.getJobs());
-        sortedJobs.sort((j1, j2) -> {
-            int lag1 = getMaxLag(j1);
-            int lag2 = getMaxLag(j2);
-            if (lag1 != lag2) return Integer.compare(lag1, lag2);
-            if (j1.getReleaseDate() != j2.getReleaseDate()) 
-                return Integer.compare(j1.getReleaseDate(), j2.getReleaseDate());
-            return Integer.compare(j2.getPriority(), j1.getPriority());
-        });
+        insert(solution, problem.getJobs());
         
-        /* create a map for batchs to machines affectations*/
-        Map<Integer, List<Batch>> machineToBatches = new HashMap<>();
-        int batchIdCounter = 0;
+        /*Evaluation of this solution, the start times come from a simulation of the machines in the order of the PBIA */
+        if (!new DispatchSimulator().simulate(solution)) {
+            throw new IllegalStateException("The batches of the PBIA wait for each other");
+        }
+        solution.evaluate();
         
-        for (Job job : sortedJobs) {
+        return solution;
+    }
+    
+    /* PBIA over the given jobs on a solution that may already hold batches: the operations without a batch join the open batches created by
+       this call or new batches added at the end of the machines, so the batches already planned keep their place and the orders stay acyclic.
+       The sort keys of the jobs are computed once and the open batches of this call are kept by machine and recipe, so every operation costs
+       a lookup per eligible machine whatever the size of the solution. Among the machines, the operation goes where it can start first:
+       in the open batch starting first, or else in a new batch on the machine available first. An open batch starting after the max time
+       lag of the previous operation is left for a new batch starting earlier, but the lags are not guaranteed: when every machine is busy
+       past the deadline the operation still starts late, and the annealing starts from a solution breaking some lags */
+    public void insert(Solution solution, List<Job> jobs) {
+        /* Copy and sort jobs based on the priority rules of heuristic  */
+        int[] maxLag = new int[jobs.size()];
+        int[] release = new int[jobs.size()];
+        int[] priority = new int[jobs.size()];
+        Integer[] order = new Integer[jobs.size()];
+        for (int i = 0; i < jobs.size(); i++) {
+            maxLag[i] = getMaxLag(jobs.get(i));
+            release[i] = jobs.get(i).getReleaseDate();
+            priority[i] = jobs.get(i).getPriority();
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> {
+            if (maxLag[i1] != maxLag[i2]) return Integer.compare(maxLag[i1], maxLag[i2]);
+            if (release[i1] != release[i2]) return Integer.compare(release[i1], release[i2]);
+            return Integer.compare(priority[i2], priority[i1]);
+        });
+
+        /* batches of this call at machine index * recipe count + recipe id, in the order of their ids, and the estimated start of these batches by id */
+        int recipeCount = problem.getRecipeCount();
+        List<CreatedBatches> created = new ArrayList<>(Collections.nCopies(problem.getMachines().size() * recipeCount, null));
+        int firstBatchId = solution.getNextBatchId();
+        int[] batchStart = new int[64];
+
+        /* a machine is available at the end of its last batch, not before the time of the solution */
+        int[] available = new int[problem.getMachines().size()];
+        Batch[] lastBatch = new Batch[problem.getMachines().size()];
+        for (Machine machine : problem.getMachines()) {
+            List<Batch> sequence = solution.getMachineSequence(machine.getId());
+            int time = solution.getNow();
+            if (!sequence.isEmpty()) {
+                Batch last = sequence.get(sequence.size() - 1);
+                if (last.getStartTime() >= 0) time = Math.max(time, last.getStartTime() + last.getProcessingTime() + machine.getInterBatchDelay());
+            }
+            available[machine.getIndex()] = time;
+        }
+
+        for (Integer position : order) {
+            Job job = jobs.get(position);
+            /* An operation only joins a batch created after the batch of the previous operation of its job:
+               batch ids then follow every job and machine arc so the disjunctive graph has no cycle */
+            int previousBatchId = firstBatchId - 1;
+            int ready = job.getReleaseDate();
+            /* latest start the max time lag of the previous operation allows, the PBIA tries to open a batch before it */
+            int deadline = Integer.MAX_VALUE;
             for (Operation op : job.getOperations()) {
-                boolean inserted = false;
-                
-                /* for every operations research of an existing batche to add the operations in it */
+                Batch planned = solution.getBatchForOperation(op);
+                if (planned != null) {
+                    if (planned.getStartTime() >= 0) {
+                        ready = planned.getStartTime() + op.getProcessingTime() + op.getMinTimeLag();
+                        deadline = lagDeadline(planned.getStartTime(), op);
+                    } else {
+                        deadline = Integer.MAX_VALUE;
+                    }
+                    continue;
+                }
+
+                /* for every operations research of an existing batche to add the operations in it, the first one after the previous
+                   batch of the job on every machine */
+                Batch chosen = null;
+                CreatedBatches chosenList = null;
+                int chosenPosition = -1;
+                int start = Integer.MAX_VALUE;
                 for (int machineId : op.getEligibleMachines()) {
                     Machine machine = problem.getMachine(machineId);
-                    if (machine == null || !machine.canProcess(op.getRecipe())) continue;
-                    
-                    List<Batch> batches = machineToBatches.get(machineId);
-                    if (batches != null) {
-                        for (Batch batch : batches) {
-                            if (batch.getRecipe() != null && 
-                                batch.getRecipe().equals(op.getRecipe()) && 
-                                batch.getOperations().size() < machine.getCapacity()) {
-                                batch.addOperation(op);
-                                inserted = true;
-                                break;
-                            }
-                        }
+                    if (machine == null || !machine.canProcess(op.getRecipeId())) continue;
+                    CreatedBatches batches = created.get(machine.getIndex() * recipeCount + op.getRecipeId());
+                    int first = batches == null ? -1 : batches.firstOpenAfter(previousBatchId);
+                    if (first >= 0 && Math.max(batchStart[batches.ids[first] - firstBatchId], ready) < start) {
+                        chosen = batches.batches[first];
+                        chosenList = batches;
+                        chosenPosition = first;
+                        start = Math.max(batchStart[batches.ids[first] - firstBatchId], ready);
                     }
-                    if (inserted) break;
                 }
-                 /* if there is no compatible batches we create a new batch to store this operation */
-                if (!inserted) {
+                /* an open batch starting after the deadline is only joined when no new batch can start earlier */
+                if (chosen != null && start > deadline) {
                     for (int machineId : op.getEligibleMachines()) {
                         Machine machine = problem.getMachine(machineId);
-                        if (machine != null && machine.canProcess(op.getRecipe())) {
-                            List<Batch> batches = machineToBatches.computeIfAbsent(machineId, 
-                                k -> new ArrayList<>());
-                            
-                            Batch newBatch = new Batch(batchIdCounter++, machineId, batches.size());
-                            newBatch.addOperation(op);
-                            batches.add(newBatch);
-                            solution.addBatch(newBatch);
+                        if (machine == null || !machine.canProcess(op.getRecipeId())) continue;
+                        if (Math.max(available[machine.getIndex()], ready) < start) {
+                            chosen = null;
+                            start = Integer.MAX_VALUE;
                             break;
                         }
                     }
                 }
-            }
-        }
-        
-        /*Evaluation of this solution */
-        calculateStartTimesSimple(solution, machineToBatches);
-        solution.evaluate();
-        
-        return solution;
-    }
-    
-    /* Calcul of the start time of every operations based on the rules descibed in the article */
-    private void calculateStartTimesSimple(Solution solution, Map<Integer, List<Batch>> machineToBatches) {
-        for (Map.Entry<Integer, List<Batch>> entry : machineToBatches.entrySet()) {
-            int machineId = entry.getKey();
-            Machine machine = problem.getMachine(machineId);
-            if (machine == null) continue;
-            
-            int currentTime = 0;
-            /* for every batch scheduled on a machine */
-            for (Batch batch : entry.getValue()) {
-                if (batch.getOperations().isEmpty()) continue;
-                /* start the operation ASAP */
-                int batchStart = currentTime;
-                /* calcul of the time diff based on the rules to update currentTime */
-                for (Operation op : batch.getOperations()) {
-                    /* Release date */
-                    int requiredTime = op.getJob().getReleaseDate();
-                    /* Last operation must be complete */
-                    if (op.getIndex() > 0) {
-                        Operation prevOp = op.getJob().getOperations().get(op.getIndex() - 1);
-                        int prevStart = solution.getStartTime(prevOp);
-                        if (prevStart >= 0) {
-                            requiredTime = prevStart + prevOp.getProcessingTime() + prevOp.getMinTimeLag();
+                if (chosen != null) {
+                    Machine machine = problem.getMachine(chosen.getMachineId());
+                    solution.addOperation(chosen, op);
+                    chosenList.room[chosenPosition]--;
+                    batchStart[chosen.getId() - firstBatchId] = start;
+                    if (lastBatch[machine.getIndex()] == chosen) {
+                        available[machine.getIndex()] = Math.max(available[machine.getIndex()],
+                                                                 start + chosen.getProcessingTime() + machine.getInterBatchDelay());
+                    }
+                } else {
+                    /* if there is no compatible batches we create a new batch to store this operation, on the machine it can start first */
+                    Machine best = null;
+                    for (int machineId : op.getEligibleMachines()) {
+                        Machine machine = problem.getMachine(machineId);
+                        if (machine == null || !machine.canProcess(op.getRecipeId())) continue;
+                        if (Math.max(available[machine.getIndex()], ready) < start) {
+                            best = machine;
+                            start = Math.max(available[machine.getIndex()], ready);
                         }
                     }
-                    
-                    batchStart = Math.max(batchStart, requiredTime);
-                }
-                
-                /* Every operations of the batch should start at the same time */
-                batch.setStartTime(batchStart);
-                for (Operation op : batch.getOperations()) {
-                    solution.setStartTime(op, batchStart);
+                    if (best == null) continue;
+                    /* the new batch goes after the batches already on the machine */
+                    chosen = new Batch(solution.nextBatchId(), best.getId(), solution.getMachineSequence(best.getId()).size());
+                    chosen.addOperation(op);
+                    solution.addBatch(chosen);
+                    if (chosen.getId() - firstBatchId >= batchStart.length) {
+                        batchStart = Arrays.copyOf(batchStart, batchStart.length * 2);
+                    }
+                    batchStart[chosen.getId() - firstBatchId] = start;
+                    available[best.getIndex()] = start + op.getProcessingTime() + best.getInterBatchDelay();
+                    lastBatch[best.getIndex()] = chosen;
+                    int slot = best.getIndex() * recipeCount + op.getRecipeId();
+                    if (created.get(slot) == null) created.set(slot, new CreatedBatches());
+                    created.get(slot).add(chosen, best.getCapacity());
                 }
-                
-                currentTime = batchStart + batch.getProcessingTime() + machine.getInterBatchDelay();
+                previousBatchId = chosen.getId();
+                ready = start + op.getProcessingTime() + op.getMinTimeLag();
+                deadline = lagDeadline(start, op);
             }
         }
     }
+
+    /* Latest start of the next operation of the job after an operation starting at start */
+    private int lagDeadline(int start, Operation op) {
+        if (op.getMaxTimeLag() == Integer.MAX_VALUE) return Integer.MAX_VALUE;
+        return (int) Math.min(Integer.MAX_VALUE, (long) start + op.getProcessingTime() + op.getMaxTimeLag());
+    }
     
     /*Calcul of the max timelag for a job */
     private int getMaxLag(Job job) {
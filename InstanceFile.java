@@ -0,0 +1,158 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/* Text format of a problem instance, one comma separated record per line so a fab snapshot is read as a stream without holding the file in memory.
+   Empty lines and lines starting with # are ignored.
+     horizon,<minutes>                                                          once, before any other record
+     machine,<id>,<capacity>,<setupTime>,<removalTime>,<interBatchDelay>
+     qualification,<machineId>,<recipe>                                         right after its machine, one line per qualified recipe
+     job,<id>,<releaseDate>,<priority>,<waferCount>
+     operation,<jobId>,<id>,<processingTime>,<recipe>,<minTimeLag>,<maxTimeLag>,<machineId>;<machineId>;...
+                                                                                right after its job, in the order of the route
+   The machines come before the jobs, every eligible machine of an operation has to be declared. An empty max time lag means no limit. Only the machine or the job being read is kept in memory, it is added to the problem when the next one starts */
+public class InstanceFile {
+
+    public static Problem load(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    public static Problem load(BufferedReader reader) throws IOException {
+        Problem problem = null;
+        Machine machine = null;
+        Job job = null;
+        String[] fields = new String[8];
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.charAt(0) == '#') continue;
+            int count = split(line, fields);
+            String record = fields[0];
+            try {
+                if (record.equals("horizon")) {
+                    expect(count, 2, record);
+                    if (problem != null) throw new IllegalArgumentException("horizon given twice");
+                    problem = new Problem(Integer.parseInt(fields[1]));
+                    continue;
+                }
+                if (problem == null) throw new IllegalArgumentException("the horizon has to come first");
+                if (record.equals("qualification")) {
+                    expect(count, 3, record);
+                    if (machine == null || machine.getId() != Integer.parseInt(fields[1])) {
+                        throw new IllegalArgumentException("qualification of machine " + fields[1] + " outside of its machine");
+                    }
+                    machine.getQualifiedRecipes().add(fields[2]);
+                    continue;
+                }
+                if (record.equals("operation")) {
+                    expect(count, 8, record);
+                    if (job == null || job.getId() != Integer.parseInt(fields[1])) {
+                        throw new IllegalArgumentException("operation of job " + fields[1] + " outside of its job");
+                    }
+                    List<Integer> eligible = parseMachines(fields[7]);
+                    for (int machineId : eligible) {
+                        if (problem.getMachine(machineId) == null) throw new IllegalArgumentException("machine " + machineId + " is not declared");
+                    }
+                    Operation op = new Operation(Integer.parseInt(fields[2]), job, job.getOperations().size(), Integer.parseInt(fields[3]),
+                                                 fields[4], eligible);
+                    op.setTimeLags(Integer.parseInt(fields[5]), fields[6].isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(fields[6]));
+                    job.addOperation(op);
+                    continue;
+                }
+                /* any other record closes the machine or the job in progress */
+                if (machine != null) problem.addMachine(machine);
+                if (job != null) problem.addJob(job);
+                machine = null;
+                job = null;
+                if (record.equals("machine")) {
+                    expect(count, 6, record);
+                    if (problem.getMachine(Integer.parseInt(fields[1])) != null) {
+                        throw new IllegalArgumentException("machine " + fields[1] + " declared twice");
+                    }
+                    machine = new Machine(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                                          Integer.parseInt(fields[4]), Integer.parseInt(fields[5]), new ArrayList<>());
+                } else if (record.equals("job")) {
+                    expect(count, 5, record);
+                    job = new Job(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+                } else {
+                    throw new IllegalArgumentException("unknown record " + record);
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (problem == null) throw new IllegalArgumentException("Empty instance, no horizon found");
+        if (machine != null) problem.addMachine(machine);
+        if (job != null) problem.addJob(job);
+        return problem;
+    }
+
+    public static void save(Problem problem, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            save(problem, writer);
+        }
+    }
+
+    public static void save(Problem problem, Writer writer) throws IOException {
+        writer.write("horizon," + problem.getHorizon() + "\n");
+        for (Machine m : problem.getMachines()) {
+            writer.write("machine," + m.getId() + "," + m.getCapacity() + "," + m.getSetupTime() + "," + m.getRemovalTime() + "," + m.getInterBatchDelay() + "\n");
+            for (String recipe : m.getQualifiedRecipes()) {
+                writer.write("qualification," + m.getId() + "," + recipe + "\n");
+            }
+        }
+        StringBuilder line = new StringBuilder();
+        for (Job job : problem.getJobs()) {
+            writer.write("job," + job.getId() + "," + job.getReleaseDate() + "," + job.getPriority() + "," + job.getWaferCount() + "\n");
+            for (Operation op : job.getOperations()) {
+                line.setLength(0);
+                line.append("operation,").append(job.getId()).append(',').append(op.getId()).append(',').append(op.getProcessingTime())
+                    .append(',').append(op.getRecipe()).append(',').append(op.getMinTimeLag()).append(',');
+                if (op.getMaxTimeLag() < Integer.MAX_VALUE) line.append(op.getMaxTimeLag());
+                line.append(',');
+                List<Integer> eligible = op.getEligibleMachines();
+                for (int i = 0; i < eligible.size(); i++) {
+                    if (i > 0) line.append(';');
+                    line.append(eligible.get(i));
+                }
+                writer.write(line.append('\n').toString());
+            }
+        }
+    }
+
+    /* Split on commas without regular expressions, the last field keeps the rest of the line */
+    private static int split(String line, String[] fields) {
+        int count = 0;
+        int start = 0;
+        while (count < fields.length - 1) {
+            int comma = line.indexOf(',', start);
+            if (comma < 0) break;
+            fields[count++] = line.substring(start, comma).trim();
+            start = comma + 1;
+        }
+        fields[count++] = line.substring(start).trim();
+        return count;
+    }
+
+    private static List<Integer> parseMachines(String field) {
+        List<Integer> machines = new ArrayList<>();
+        int start = 0;
+        while (start < field.length()) {
+            int end = field.indexOf(';', start);
+            if (end < 0) end = field.length();
+            machines.add(Integer.parseInt(field.substring(start, end).trim()));
+            start = end + 1;
+        }
+        return machines;
+    }
+
+    private static void expect(int count, int expected, String record) {
+        if (count < expected) {
+            throw new IllegalArgumentException(record + " needs " + expected + " fields, found " + count);
+        }
+    }
+}
@@ -3,6 +3,8 @@ import java.util.List;
 
 public class Job {
     private int id;
+    /* Position of the job in the problem, used to index the per-job caches of a solution */
+    private int index;
     /* List every operations by the job  */
     private List<Operation> operations;
     private int releaseDate;
@@ -22,6 +24,8 @@ public class Job {
     }
     
     public int getId() { return id; }
+    public int getIndex() { return index; }
+    public void setIndex(int index) { this.index = index; }
     public List<Operation> getOperations() { return operations; }
     public int getReleaseDate() { return releaseDate; }
     public int getPriority() { return priority; }
@@ -1,13 +1,18 @@
+import java.util.BitSet;
 import java.util.List;
 
 public class Machine {
     private int id;
+    /* Position of the machine in the problem */
+    private int index;
     private int capacity;
     private int setupTime;
     private int removalTime;
     private int interBatchDelay;
     /* Listing associated recipes to affect operations to right machines in addition to disponibility */
     private List<String> qualifiedRecipes;
+    /* Same recipes as bits on their ids, set by the problem when the machine is added */
+    private BitSet qualification;
     
     public Machine(int id, int capacity, int setupTime, int removalTime, int interBatchDelay, List<String> qualifiedRecipes) {
         this.id = id;
@@ -16,16 +21,25 @@ public class Machine {
         this.removalTime = removalTime;
         this.interBatchDelay = interBatchDelay;
         this.qualifiedRecipes = qualifiedRecipes;
+        this.qualification = new BitSet();
     }
     
     public boolean canProcess(String recipe) {
         return qualifiedRecipes.contains(recipe);
     }
     
+    public boolean canProcess(int recipeId) {
+        return qualification.get(recipeId);
+    }
+    
     public int getId() { return id; }
+    public int getIndex() { return index; }
+    public void setIndex(int index) { this.index = index; }
     public int getCapacity() { return capacity; }
     public int getSetupTime() { return setupTime; }
     public int getRemovalTime() { return removalTime; }
     public int getInterBatchDelay() { return interBatchDelay; }
     public List<String> getQualifiedRecipes() { return qualifiedRecipes; }
+    public BitSet getQualification() { return qualification; }
+    public void setQualification(BitSet qualification) { this.qualification = qualification; }
 }
\ No newline at end of file
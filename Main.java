@@ -19,108 +19,40 @@ public class Main {
                           String.format("%.2f%%", change) + ")");
     }
     
+    /* Manifest of an annealing run with the seed the solver drew, RunManifest.read(...).replay(problem) runs it again */
+    private static void printManifest(SimulatedAnnealing annealing, Problem problem, Solution best) throws java.io.IOException {
+        RunManifest manifest = RunManifest.annealing(annealing);
+        manifest.record(problem, best);
+        java.io.StringWriter text = new java.io.StringWriter();
+        manifest.write(text);
+        System.out.print("Manifest:\n" + text);
+    }
+
+    /* Demo instance: 700 jobs on 12 cleaning machines and 70 furnaces with 50 recipes */
     private static Problem createTestProblem() {
-        Problem problem = new Problem(1440);
-        
-        String[] recipes = new String[50];
-        for (int i = 0; i < 50; i++) {
-            recipes[i] = "R" + (i + 1);
-        }
-        
-        List<Machine> cleaningMachines = new ArrayList<>();
-        for (int i = 1; i <= 12; i++) {
-            List<String> qualifiedRecipes = new ArrayList<>();
-            int numRecipes = 8 + new Random(i).nextInt(12);
-            for (int j = 0; j < numRecipes; j++) {
-                qualifiedRecipes.add(recipes[(i * 3 + j) % 50]);
-            }
-            Machine m = new Machine(i, 2 + new Random(i).nextInt(3), 10 + new Random(i).nextInt(20), 
-                                   10 + new Random(i).nextInt(20), 5, qualifiedRecipes);
-            cleaningMachines.add(m);
-            problem.addMachine(m);
-        }
-        
-        List<Machine> furnaces = new ArrayList<>();
-        for (int i = 13; i <= 82; i++) {
-            List<String> qualifiedRecipes = new ArrayList<>();
-            int numRecipes = 5 + new Random(i).nextInt(10);
-            for (int j = 0; j < numRecipes; j++) {
-                qualifiedRecipes.add(recipes[(i * 2 + j) % 50]);
-            }
-            Machine m = new Machine(i, 4 + new Random(i).nextInt(3), 15 + new Random(i).nextInt(15), 
-                                   15 + new Random(i).nextInt(15), 5 + new Random(i).nextInt(10), 
-                                   qualifiedRecipes);
-            furnaces.add(m);
-            problem.addMachine(m);
-        }
-        
-        Random random = new Random(42);
-        for (int i = 0; i < 700; i++) {
-            int priority = random.nextInt(10) + 1;
-            int releaseDate = random.nextInt(240);
-            
-            Job job = new Job(i, releaseDate, priority, 25);
-            
-            String recipe1 = recipes[random.nextInt(50)];
-            List<Integer> eligibleCleaning = new ArrayList<>();
-            for (Machine m : cleaningMachines) {
-                if (m.canProcess(recipe1)) {
-                    eligibleCleaning.add(m.getId());
-                }
-            }
-            if (eligibleCleaning.isEmpty()) {
-                eligibleCleaning.add(1 + random.nextInt(12));
-            }
-            
-            Operation op1 = new Operation(i * 10, job, 0, 20 + random.nextInt(20), recipe1, eligibleCleaning);
-            op1.setTimeLags(10, 240);
-            job.addOperation(op1);
-            
-            String recipe2 = recipes[random.nextInt(50)];
-            List<Integer> eligibleFurnaces = new ArrayList<>();
-            for (Machine m : furnaces) {
-                if (m.canProcess(recipe2)) {
-                    eligibleFurnaces.add(m.getId());
-                }
-            }
-            if (eligibleFurnaces.isEmpty()) {
-                eligibleFurnaces.add(13 + random.nextInt(70));
-            }
-            
-            int duration2 = 180 + random.nextInt(420);
-            Operation op2 = new Operation(i * 10 + 1, job, 1, duration2, recipe2, eligibleFurnaces);
-            op2.setTimeLags(5, 240);
-            job.addOperation(op2);
-            
-            if (random.nextDouble() > 0.7) {
-                String recipe3 = recipes[random.nextInt(50)];
-                eligibleFurnaces = new ArrayList<>();
-                for (Machine m : furnaces) {
-                    if (m.canProcess(recipe3)) {
-                        eligibleFurnaces.add(m.getId());
-                    }
-                }
-                if (eligibleFurnaces.isEmpty()) {
-                    eligibleFurnaces.add(13 + random.nextInt(70));
-                }
-                
-                int duration3 = 120 + random.nextInt(300);
-                Operation op3 = new Operation(i * 10 + 2, job, 2, duration3, recipe3, eligibleFurnaces);
-                op3.setTimeLags(5, 240);
-                job.addOperation(op3);
-            }
-            
-            problem.addJob(job);
-        }
-        
-        return problem;
+        return new ProblemGenerator(700, 82, 50).generate(42);
+    }
+
+    /* Instance given on the command line, a binary snapshot when the file ends with .snapshot and the text format otherwise */
+    private static Problem loadProblem(String file) throws java.io.IOException {
+        java.nio.file.Path path = java.nio.file.Paths.get(file);
+        return file.endsWith(".snapshot") ? ProblemSnapshot.read(path) : InstanceFile.load(path);
     }
 
-    /* Global simulation */
-    public static void main(String[] args) {
+    /* Global simulation, arguments: [instance file] [--decomposition]. The decomposition is only run on demand: the machines of the demo
+       instance form one coupled group, three quarters of the operations are cut between the parts and it finds a worse solution than the
+       parallel tempering in more time */
+    public static void main(String[] args) throws java.io.IOException {
         System.out.println("Java inplementation of the Simulated annealing method described in the article: A batching and scheduling algorithm for the diffusion area in semiconductor manufacturing\n");
         
-        Problem problem = createTestProblem();
+        String file = null;
+        boolean decompose = false;
+        for (String arg : args) {
+            if (arg.equals("--decomposition")) decompose = true;
+            else if (arg.startsWith("--")) throw new IllegalArgumentException("Unknown option " + arg);
+            else file = arg;
+        }
+        Problem problem = file != null ? loadProblem(file) : createTestProblem();
         System.out.println("Problem: " + problem.getJobs().size() + " jobs, " + 
                           problem.getMachines().size() + " machines\n");
         
@@ -142,6 +74,7 @@ public class Main {
         
         System.out.println("execution time SA: " + saTime1 + " ms");
         printSolution("Final 1", finale1);
+        printManifest(sa1, problem, finale1);
         
         double improvement1 = ((finale1.getObjectiveValue() - initial.getObjectiveValue()) 
                              / Math.abs(initial.getObjectiveValue())) * 100;
@@ -161,6 +94,7 @@ public class Main {
         
         System.out.println("execution time SA: " + saTime2 + " ms");
         printSolution("Final 2", finale2);
+        printManifest(sa2, problem, finale2);
         
         double improvement2 = ((finale2.getObjectiveValue() - initial.getObjectiveValue()) 
                              / Math.abs(initial.getObjectiveValue())) * 100;
@@ -170,7 +104,42 @@ public class Main {
         printIndicatorComparison("fMov", initial.getfMov(), finale2.getfMov());
         printIndicatorComparison("fBatch", initial.getfBatch(), finale2.getfBatch());
         printIndicatorComparison("fXFac", initial.getfXFac(), finale2.getfXFac());
-        
+
+        // SIMULATION 3: Parallel tempering, one chain per core between the temperatures of the two previous simulations
+        int chains = Math.max(2, Runtime.getRuntime().availableProcessors());
+        System.out.println("\nSIMULATION 3: parallel tempering, " + chains + " chains, T=5000000 to 5000\n");
+        ParallelTempering pt = new ParallelTempering(problem, chains, 5000000.0, 5000.0, 1000, 50, 42);
+        startTime = System.currentTimeMillis();
+        Solution finale3 = pt.solve(initial);
+        long ptTime = System.currentTimeMillis() - startTime;
+
+        System.out.println("execution time PT: " + ptTime + " ms");
+        printSolution("Final 3", finale3);
+
+        double improvement3 = ((finale3.getObjectiveValue() - initial.getObjectiveValue())
+                             / Math.abs(initial.getObjectiveValue())) * 100;
+        System.out.println("improvement: " + String.format("%.2f%%", improvement3));
+
+        // SIMULATION 4: Decomposition, one part of the machines per core annealed concurrently
+        Decomposition decomposition = null;
+        Solution finale4 = null;
+        long decompositionTime = 0;
+        double improvement4 = 0;
+        if (decompose) {
+            System.out.println("\nSIMULATION 4: decomposition, " + chains + " parts, T0=5000000, alpha=0.995\n");
+            decomposition = new Decomposition(problem, chains, 5000000.0, 0.995, 1000, 50, 42);
+            startTime = System.currentTimeMillis();
+            finale4 = decomposition.solve(initial);
+            decompositionTime = System.currentTimeMillis() - startTime;
+
+            System.out.println("execution time decomposition: " + decompositionTime + " ms");
+            printSolution("Final 4", finale4);
+
+            improvement4 = ((finale4.getObjectiveValue() - initial.getObjectiveValue())
+                           / Math.abs(initial.getObjectiveValue())) * 100;
+            System.out.println("improvement: " + String.format("%.2f%%", improvement4));
+        }
+
         // COMPARAISON
         System.out.println("\nComparaison bitween artcile values (temperature and cooling rate) and adjusted values:\n");
         System.out.println("Simulation 1 (5000, 0.95):");
@@ -181,6 +150,16 @@ public class Main {
         System.out.println("  - goal: " + String.format("%.2f", finale2.getObjectiveValue()));
         System.out.println("  - improvement: " + String.format("%.2f%%", improvement2));
         System.out.println("  - time: " + saTime2 + " ms");
+        System.out.println("\nSimulation 3 (parallel tempering, " + chains + " chains):");
+        System.out.println("  - goal: " + String.format("%.2f", finale3.getObjectiveValue()));
+        System.out.println("  - improvement: " + String.format("%.2f%%", improvement3));
+        System.out.println("  - time: " + ptTime + " ms");
+        if (decompose) {
+            System.out.println("\nSimulation 4 (decomposition, " + decomposition.getParts().size() + " parts):");
+            System.out.println("  - goal: " + String.format("%.2f", finale4.getObjectiveValue()));
+            System.out.println("  - improvement: " + String.format("%.2f%%", improvement4));
+            System.out.println("  - time: " + decompositionTime + " ms");
+        }
     }
     
    
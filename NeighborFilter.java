@@ -0,0 +1,91 @@
+import java.util.*;
+
+/* Checks of a neighbor applied in place, before it is scheduled: only the batches touched by the move are looked at, so a check costs the size
+   of the move. The disjunctive graph only knows the job and machine orders and the time lags, the batches themselves are validated here:
+   - eligibility: every operation of a batch can be processed by its machine
+   - capacity: a batch holds at most the capacity of its machine
+   - recipe: the operations of a batch share the same recipe
+   - precedence: two operations of a job in the same batch, or on the same machine in the opposite order, close a cycle
+   - max lag: the batches of two operations of a job on the same machine are separated by the batches in between, the machine path alone
+     being longer than the processing time and the max time lag closes a positive cycle in the graph
+   The last two tests only see the consecutive operations of a job on the same machine, the other infeasible neighbors are still found by the
+   scheduling. A rejected neighbor is reverted before the graph sees it */
+public class NeighborFilter {
+    public static final int PASSED = -1;
+    /* Reasons of a rejection */
+    public static final int ELIGIBILITY = 0;
+    public static final int CAPACITY = 1;
+    public static final int RECIPE = 2;
+    public static final int PRECEDENCE = 3;
+    public static final int MAX_LAG = 4;
+    public static final String[] REASON_NAMES = {"eligibility", "capacity", "recipe", "precedence", "maxLag"};
+
+    private NeighborFilter() {
+    }
+
+    /* Reason the touched batches from the given index of the solution list are rejected for, or PASSED. The max time lags are only tested
+       when the graph enforces them */
+    public static int check(Solution solution, int firstTouched, boolean maxLagsEnforced) {
+        List<Batch> touched = solution.getTouchedBatches();
+        for (int i = firstTouched; i < touched.size(); i++) {
+            int reason = check(solution, touched.get(i), maxLagsEnforced);
+            if (reason != PASSED) return reason;
+        }
+        return PASSED;
+    }
+
+    public static int check(Solution solution, Batch batch, boolean maxLagsEnforced) {
+        List<Operation> ops = batch.getOperations();
+        /* removed and emptied batches have nothing left to check */
+        if (ops.isEmpty() || !solution.contains(batch)) return PASSED;
+
+        Machine machine = solution.getProblem().getMachine(batch.getMachineId());
+        if (ops.size() > machine.getCapacity()) return CAPACITY;
+        int recipe = ops.get(0).getRecipeId();
+        for (Operation op : ops) {
+            if (op.getRecipeId() != recipe) return RECIPE;
+            if (!machine.canProcess(recipe) || !op.isEligible(batch.getMachineId())) return ELIGIBILITY;
+        }
+
+        for (Operation op : ops) {
+            List<Operation> jobOps = op.getJob().getOperations();
+            if (op.getIndex() > 0) {
+                Operation previous = jobOps.get(op.getIndex() - 1);
+                int reason = checkPair(solution, previous, solution.getBatchForOperation(previous), batch, maxLagsEnforced);
+                if (reason != PASSED) return reason;
+            }
+            if (op.getIndex() + 1 < jobOps.size()) {
+                int reason = checkPair(solution, op, batch, solution.getBatchForOperation(jobOps.get(op.getIndex() + 1)), maxLagsEnforced);
+                if (reason != PASSED) return reason;
+            }
+        }
+        return PASSED;
+    }
+
+    /* An operation in the batch before and the next operation of its job in the batch after */
+    private static int checkPair(Solution solution, Operation op, Batch before, Batch after, boolean maxLagsEnforced) {
+        if (before == null || after == null || before.getOperations().isEmpty() || after.getOperations().isEmpty()) return PASSED;
+        if (before == after) return PRECEDENCE;
+        if (before.getMachineId() != after.getMachineId()) return PASSED;
+
+        int from = solution.getMachinePosition(before);
+        int to = solution.getMachinePosition(after);
+        if (to < from) return PRECEDENCE;
+        /* a frozen batch has no max time lag arc, as in the graph */
+        if (!maxLagsEnforced || op.getMaxTimeLag() == Integer.MAX_VALUE || before.isFrozen()) return PASSED;
+
+        /* the walk stops once the path is past the limit, so it covers at most the batches fitting in the time lag window */
+        List<Batch> sequence = solution.getMachineSequence(before.getMachineId());
+
+        long limit = (long) op.getProcessingTime() + op.getMaxTimeLag();
+        int delay = solution.getProblem().getMachine(before.getMachineId()).getInterBatchDelay();
+        long path = 0;
+        for (int i = from; i < to; i++) {
+            Batch batch = sequence.get(i);
+            if (batch.getOperations().isEmpty()) continue;
+            path += batch.getProcessingTime() + delay;
+            if (path > limit) return MAX_LAG;
+        }
+        return PASSED;
+    }
+}
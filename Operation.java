@@ -1,13 +1,20 @@
+import java.util.BitSet;
 import java.util.List;
 
 public class Operation {
     private int id;
     private Job job;
     private int index;
+    /* Dense position of the operation among every operations of the problem, used to index the arrays of a solution */
+    private int globalIndex;
     private int processingTime;
     private String recipe;
+    /* Id of the recipe in the dictionary of the problem */
+    private int recipeId;
     /* list of index of eligible machines to perform affectation */
     private List<Integer> eligibleMachines;
+    /* Same machines as bits on their ids, set by the problem when the job is added */
+    private BitSet eligibility;
     private int minTimeLag;
     private int maxTimeLag;
     
@@ -18,6 +25,7 @@ public class Operation {
         this.processingTime = processingTime;
         this.recipe = recipe;
         this.eligibleMachines = eligibleMachines;
+        this.eligibility = new BitSet();
         this.minTimeLag = 0;
         this.maxTimeLag = Integer.MAX_VALUE;
     }
@@ -30,9 +38,15 @@ public class Operation {
     public int getId() { return id; }
     public Job getJob() { return job; }
     public int getIndex() { return index; }
+    public int getGlobalIndex() { return globalIndex; }
+    public void setGlobalIndex(int globalIndex) { this.globalIndex = globalIndex; }
     public int getProcessingTime() { return processingTime; }
     public String getRecipe() { return recipe; }
+    public int getRecipeId() { return recipeId; }
+    public void setRecipeId(int recipeId) { this.recipeId = recipeId; }
     public List<Integer> getEligibleMachines() { return eligibleMachines; }
+    public boolean isEligible(int machineId) { return eligibility.get(machineId); }
+    public void setEligibility(BitSet eligibility) { this.eligibility = eligibility; }
     public int getMinTimeLag() { return minTimeLag; }
     public int getMaxTimeLag() { return maxTimeLag; }
 }
\ No newline at end of file
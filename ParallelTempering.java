@@ -0,0 +1,147 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Parallel version of the simulated annealing based on replica exchange: several chains run the moves of the article at different temperatures,
+   each one on its own thread with its own seed, solution and disjunctive graph, the problem being shared read only.
+   After every round neighbouring chains may swap their solutions so good schedules found by the hot chains move down to the cold ones */
+public class ParallelTempering {
+    private Problem problem;
+    private int chainCount;
+    private double maxTemperature;
+    private double minTemperature;
+    private int iterationsPerRound;
+    private int rounds;
+    private long seed;
+    /* Shared by all the chains, the trajectory gets one point per chain and round */
+    private SolverMetrics metrics;
+
+    /* State of one chain, only touched by one worker thread during a round */
+    private static class Chain {
+        SimulatedAnnealing annealing;
+        Solution current;
+        DisjunctiveGraph graph;
+        /* snapshot of the current solution at its best, sharing the machines it did not change since */
+        SolutionSnapshot best;
+        double temperature;
+        int accepted;
+        int trials;
+    }
+
+    public ParallelTempering(Problem problem, int chainCount, double maxTemperature, double minTemperature,
+                             int iterationsPerRound, int rounds, long seed) {
+        this.problem = problem;
+        this.chainCount = Math.max(1, chainCount);
+        this.maxTemperature = maxTemperature;
+        this.minTemperature = minTemperature;
+        this.iterationsPerRound = iterationsPerRound;
+        this.rounds = rounds;
+        this.seed = seed;
+        this.metrics = new SolverMetrics(SimulatedAnnealing.MOVE_NAMES, 16, 1);
+    }
+
+    public SolverMetrics getMetrics() { return metrics; }
+
+    public Solution solve(Solution initial) {
+        /* the seeds of the chains and the exchanges are streams split from the seed of the run, so a run only depends on its seed */
+        SplittableRandom seeds = new SplittableRandom(seed);
+        SplittableRandom exchangeRandom = seeds.split();
+        List<Chain> chains = new ArrayList<>();
+        for (int i = 0; i < chainCount; i++) {
+            Chain chain = new Chain();
+            /* geometric ladder from the hottest to the coldest chain */
+            double ratio = chainCount == 1 ? 0 : (double) i / (chainCount - 1);
+            chain.temperature = maxTemperature * Math.pow(minTemperature / maxTemperature, ratio);
+            chain.annealing = new SimulatedAnnealing(problem, chain.temperature, 1.0, iterationsPerRound * rounds, seeds.nextLong());
+            chain.annealing.setMetrics(metrics);
+            chain.current = initial.clone();
+            chain.graph = chain.annealing.schedule(chain.current);
+            if (chain.graph == null) {
+                System.out.println("Error: the job and machine orders of the initial solution contain a cycle.");
+                return initial.clone();
+            }
+            chain.best = chain.current.snapshot();
+            chains.add(chain);
+        }
+
+        System.out.println("Parallel Tempering Start - " + chainCount + " chains, T=" + String.format("%.2f", maxTemperature) +
+                           " to " + String.format("%.2f", minTemperature) + ", " + rounds + " rounds of " + iterationsPerRound + " iterations, seed " + seed);
+
+        metrics.start();
+        SolverEvents.run("ParallelTempering", problem, initial, maxTemperature, minTemperature, 1.0, (long) iterationsPerRound * rounds, chainCount);
+        ExecutorService pool = Executors.newFixedThreadPool(chainCount);
+        int swaps = 0;
+        int swapTrials = 0;
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (Chain chain : chains) {
+                tasks.add(() -> {
+                    runRound(chain);
+                    return null;
+                });
+            }
+            for (int round = 0; round < rounds; round++) {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+                for (Chain chain : chains) {
+                    metrics.recordTrajectory((long) (round + 1) * iterationsPerRound, chain.temperature,
+                                             chain.current.getObjectiveValue(), chain.best.getObjectiveValue());
+                    SolverEvents.progress((long) (round + 1) * iterationsPerRound, chain.temperature,
+                                          chain.current.getObjectiveValue(), chain.best.getObjectiveValue(), metrics);
+                }
+                /* exchanges between neighbouring temperatures, alternating even and odd pairs from one round to the next */
+                for (int i = round % 2; i + 1 < chains.size(); i += 2) {
+                    Chain hot = chains.get(i);
+                    Chain cold = chains.get(i + 1);
+                    double exponent = (cold.current.getObjectiveValue() - hot.current.getObjectiveValue())
+                                      * (1.0 / hot.temperature - 1.0 / cold.temperature);
+                    swapTrials++;
+                    if (exponent >= 0 || exchangeRandom.nextDouble() < Math.exp(exponent)) {
+                        Solution solution = hot.current;
+                        DisjunctiveGraph graph = hot.graph;
+                        hot.current = cold.current;
+                        hot.graph = cold.graph;
+                        cold.current = solution;
+                        cold.graph = graph;
+                        swaps++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A chain of the parallel tempering failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            metrics.stop();
+        }
+
+        SolutionSnapshot best = chains.get(0).best;
+        for (Chain chain : chains) {
+            System.out.println("  Chain T=" + String.format("%.2f", chain.temperature) + " - Best: " + String.format("%.2f", chain.best.getObjectiveValue()) +
+                               " - Acceptation Rate: " + String.format("%.2f%%", chain.trials == 0 ? 0 : 100.0 * chain.accepted / chain.trials));
+            if (chain.best.getObjectiveValue() > best.getObjectiveValue()) {
+                best = chain.best;
+            }
+        }
+        System.out.println("Parallel Tempering End - Best Solution Found: " + String.format("%.2f", best.getObjectiveValue()) +
+                           " - Exchanges: " + swaps + "/" + swapTrials);
+        System.out.println(metrics.summary());
+        return best.toSolution();
+    }
+
+    private void runRound(Chain chain) {
+        for (int iter = 0; iter < iterationsPerRound; iter++) {
+            int outcome = chain.annealing.iterate(chain.current, chain.graph, chain.temperature);
+            if (outcome == SimulatedAnnealing.NO_NEIGHBOR) continue;
+            chain.trials++;
+            if (outcome == SimulatedAnnealing.ACCEPTED) {
+                chain.accepted++;
+                if (chain.current.getObjectiveValue() > chain.best.getObjectiveValue()) {
+                    chain.best = chain.current.snapshot();
+                    SolverEvents.newBest(chain.trials, chain.temperature, chain.best);
+                }
+            }
+        }
+    }
+}
@@ -1,33 +1,82 @@
 import java.util.*;
 
-/* Class modeling the base problem to solve, basically the industrial setup to optimize with the machines, the jobs and the time horizon */
+/* Class modeling the base problem to solve, basically the industrial setup to optimize with the machines, the jobs and the time horizon.
+   Jobs, operations and machines receive dense indices when they are added so the solutions can keep their state in plain arrays,
+   and every recipe name gets an int id so recipes are compared as numbers. Machine qualifications and operation eligibilities are tested as
+   bits */
 public class Problem {
     private List<Job> jobs;
+    private List<Operation> operations;
     private List<Machine> machines;
-    private Map<Integer, Machine> machineMap;
+    /* Machines indexed by their id, the ids being small positive numbers a plain array avoids boxing on every lookup */
+    private Machine[] machinesById;
+    private Map<String, Integer> recipeIds;
+    private List<String> recipeNames;
     private int horizon;
-    
+
     public Problem(int horizon) {
         this.horizon = horizon;
         this.jobs = new ArrayList<>();
+        this.operations = new ArrayList<>();
         this.machines = new ArrayList<>();
-        this.machineMap = new HashMap<>();
+        this.machinesById = new Machine[16];
+        this.recipeIds = new HashMap<>();
+        this.recipeNames = new ArrayList<>();
     }
-    
+
+    /* The operations of the job have to be added before the job itself so they get their global index */
     public void addJob(Job job) {
+        job.setIndex(jobs.size());
         jobs.add(job);
+        for (Operation op : job.getOperations()) {
+            op.setGlobalIndex(operations.size());
+            op.setRecipeId(internRecipe(op.getRecipe()));
+            BitSet eligibility = new BitSet();
+            for (int machineId : op.getEligibleMachines()) {
+                eligibility.set(machineId);
+            }
+            op.setEligibility(eligibility);
+            operations.add(op);
+        }
     }
-    
+
     public void addMachine(Machine machine) {
+        if (machine.getId() < 0) {
+            throw new IllegalArgumentException("Machine ids have to be positive: " + machine.getId());
+        }
+        if (machine.getId() >= machinesById.length) {
+            machinesById = Arrays.copyOf(machinesById, Math.max(machine.getId() + 1, machinesById.length * 2));
+        }
+        machine.setIndex(machines.size());
+        BitSet qualification = new BitSet();
+        for (String recipe : machine.getQualifiedRecipes()) {
+            qualification.set(internRecipe(recipe));
+        }
+        machine.setQualification(qualification);
         machines.add(machine);
-        machineMap.put(machine.getId(), machine);
+        machinesById[machine.getId()] = machine;
     }
-    
+
+    /* Id of a recipe name, a new id is given to a name seen for the first time */
+    public int internRecipe(String recipe) {
+        Integer id = recipeIds.get(recipe);
+        if (id == null) {
+            id = recipeNames.size();
+            recipeIds.put(recipe, id);
+            recipeNames.add(recipe);
+        }
+        return id;
+    }
+
     public Machine getMachine(int id) {
-        return machineMap.get(id);
+        return id >= 0 && id < machinesById.length ? machinesById[id] : null;
     }
-    
+
     public List<Job> getJobs() { return jobs; }
+    public List<Operation> getOperations() { return operations; }
+    public int getOperationCount() { return operations.size(); }
     public List<Machine> getMachines() { return machines; }
+    public int getRecipeCount() { return recipeNames.size(); }
+    public String getRecipeName(int recipeId) { return recipeNames.get(recipeId); }
     public int getHorizon() { return horizon; }
-}
\ No newline at end of file
+}
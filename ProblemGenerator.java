@@ -0,0 +1,113 @@
+import java.util.*;
+
+/* Generator of test problems of any size in the style of the diffusion area of the article: cleaning machines followed by furnaces,
+   jobs of two or three operations with time lags. The same sizes and seed always give the same problem, the machines only depend on their id */
+public class ProblemGenerator {
+    private int jobCount;
+    private int machineCount;
+    private int recipeCount;
+    private int horizon;
+
+    public ProblemGenerator(int jobCount, int machineCount, int recipeCount) {
+        this.jobCount = jobCount;
+        this.machineCount = Math.max(2, machineCount);
+        this.recipeCount = Math.max(1, recipeCount);
+        this.horizon = 1440;
+    }
+
+    public Problem generate(long seed) {
+        Problem problem = new Problem(horizon);
+
+        String[] recipes = new String[recipeCount];
+        for (int i = 0; i < recipeCount; i++) {
+            recipes[i] = "R" + (i + 1);
+        }
+
+        /* same share of cleaning machines as the demo, 12 out of 82 */
+        int cleaningCount = Math.max(1, machineCount * 12 / 82);
+        int furnaceCount = machineCount - cleaningCount;
+
+        List<Machine> cleaningMachines = new ArrayList<>();
+        for (int i = 1; i <= cleaningCount; i++) {
+            List<String> qualifiedRecipes = new ArrayList<>();
+            int numRecipes = Math.min(recipeCount, 8 + new Random(i).nextInt(12));
+            for (int j = 0; j < numRecipes; j++) {
+                qualifiedRecipes.add(recipes[(i * 3 + j) % recipeCount]);
+            }
+            Machine m = new Machine(i, 2 + new Random(i).nextInt(3), 10 + new Random(i).nextInt(20),
+                                   10 + new Random(i).nextInt(20), 5, qualifiedRecipes);
+            cleaningMachines.add(m);
+            problem.addMachine(m);
+        }
+
+        List<Machine> furnaces = new ArrayList<>();
+        for (int i = cleaningCount + 1; i <= machineCount; i++) {
+            List<String> qualifiedRecipes = new ArrayList<>();
+            int numRecipes = Math.min(recipeCount, 5 + new Random(i).nextInt(10));
+            for (int j = 0; j < numRecipes; j++) {
+                qualifiedRecipes.add(recipes[(i * 2 + j) % recipeCount]);
+            }
+            Machine m = new Machine(i, 4 + new Random(i).nextInt(3), 15 + new Random(i).nextInt(15),
+                                   15 + new Random(i).nextInt(15), 5 + new Random(i).nextInt(10),
+                                   qualifiedRecipes);
+            furnaces.add(m);
+            problem.addMachine(m);
+        }
+
+        Random random = new Random(seed);
+        for (int i = 0; i < jobCount; i++) {
+            int priority = random.nextInt(10) + 1;
+            int releaseDate = random.nextInt(240);
+
+            Job job = new Job(i, releaseDate, priority, 25);
+
+            String recipe1 = recipes[random.nextInt(recipeCount)];
+            List<Integer> eligibleCleaning = eligibleMachines(cleaningMachines, recipe1);
+            if (eligibleCleaning.isEmpty()) {
+                eligibleCleaning.add(1 + random.nextInt(cleaningCount));
+            }
+
+            Operation op1 = new Operation(i * 10, job, 0, 20 + random.nextInt(20), recipe1, eligibleCleaning);
+            op1.setTimeLags(10, 240);
+            job.addOperation(op1);
+
+            String recipe2 = recipes[random.nextInt(recipeCount)];
+            List<Integer> eligibleFurnaces = eligibleMachines(furnaces, recipe2);
+            if (eligibleFurnaces.isEmpty()) {
+                eligibleFurnaces.add(cleaningCount + 1 + random.nextInt(furnaceCount));
+            }
+
+            int duration2 = 180 + random.nextInt(420);
+            Operation op2 = new Operation(i * 10 + 1, job, 1, duration2, recipe2, eligibleFurnaces);
+            op2.setTimeLags(5, 240);
+            job.addOperation(op2);
+
+            if (random.nextDouble() > 0.7) {
+                String recipe3 = recipes[random.nextInt(recipeCount)];
+                eligibleFurnaces = eligibleMachines(furnaces, recipe3);
+                if (eligibleFurnaces.isEmpty()) {
+                    eligibleFurnaces.add(cleaningCount + 1 + random.nextInt(furnaceCount));
+                }
+
+                int duration3 = 120 + random.nextInt(300);
+                Operation op3 = new Operation(i * 10 + 2, job, 2, duration3, recipe3, eligibleFurnaces);
+                op3.setTimeLags(5, 240);
+                job.addOperation(op3);
+            }
+
+            problem.addJob(job);
+        }
+
+        return problem;
+    }
+
+    private List<Integer> eligibleMachines(List<Machine> machines, String recipe) {
+        List<Integer> eligible = new ArrayList<>();
+        for (Machine m : machines) {
+            if (m.canProcess(recipe)) {
+                eligible.add(m.getId());
+            }
+        }
+        return eligible;
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/* Binary snapshot of a problem, written once from a parsed instance and memory mapped on the next runs so nothing has to be parsed again.
+   All the numbers are big endian ints:
+     header      magic, version, horizon, recipe count, machine count, job count
+     recipes     per recipe in id order: length of the name then its UTF-8 bytes
+     machines    per machine: id, capacity, setup time, removal time, inter batch delay, qualification count, recipe ids
+     jobs        per job: id, release date, priority, wafer count, operation count,
+                 then per operation: id, processing time, recipe id, min time lag, max time lag, eligible count, machine ids
+   The recipes are interned in the same order when the snapshot is read so a loaded problem keeps the recipe ids of the saved one */
+public class ProblemSnapshot {
+    private static final int MAGIC = 0x42415443;
+    private static final int VERSION = 1;
+
+    public static void write(Problem problem, Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(problem.getHorizon());
+            out.writeInt(problem.getRecipeCount());
+            out.writeInt(problem.getMachines().size());
+            out.writeInt(problem.getJobs().size());
+            for (int r = 0; r < problem.getRecipeCount(); r++) {
+                byte[] name = problem.getRecipeName(r).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+            for (Machine m : problem.getMachines()) {
+                out.writeInt(m.getId());
+                out.writeInt(m.getCapacity());
+                out.writeInt(m.getSetupTime());
+                out.writeInt(m.getRemovalTime());
+                out.writeInt(m.getInterBatchDelay());
+                out.writeInt(m.getQualifiedRecipes().size());
+                for (String recipe : m.getQualifiedRecipes()) {
+                    out.writeInt(problem.internRecipe(recipe));
+                }
+            }
+            for (Job job : problem.getJobs()) {
+                out.writeInt(job.getId());
+                out.writeInt(job.getReleaseDate());
+                out.writeInt(job.getPriority());
+                out.writeInt(job.getWaferCount());
+                out.writeInt(job.getOperations().size());
+                for (Operation op : job.getOperations()) {
+                    out.writeInt(op.getId());
+                    out.writeInt(op.getProcessingTime());
+                    out.writeInt(op.getRecipeId());
+                    out.writeInt(op.getMinTimeLag());
+                    out.writeInt(op.getMaxTimeLag());
+                    out.writeInt(op.getEligibleMachines().size());
+                    for (int machineId : op.getEligibleMachines()) {
+                        out.writeInt(machineId);
+                    }
+                }
+            }
+        }
+    }
+
+    /* A single mapping covers the file, which limits a snapshot to 2 GB */
+    public static Problem read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to be mapped: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return read(buffer);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupted snapshot " + path, e);
+            }
+        }
+    }
+
+    private static Problem read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) throw new IOException("Not a problem snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+        Problem problem = new Problem(buffer.getInt());
+        int recipeCount = buffer.getInt();
+        int machineCount = buffer.getInt();
+        int jobCount = buffer.getInt();
+
+        String[] recipes = new String[recipeCount];
+        for (int r = 0; r < recipeCount; r++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            recipes[r] = new String(name, StandardCharsets.UTF_8);
+            problem.internRecipe(recipes[r]);
+        }
+        for (int i = 0; i < machineCount; i++) {
+            int id = buffer.getInt();
+            int capacity = buffer.getInt();
+            int setupTime = buffer.getInt();
+            int removalTime = buffer.getInt();
+            int interBatchDelay = buffer.getInt();
+            int qualificationCount = buffer.getInt();
+            List<String> qualified = new ArrayList<>(qualificationCount);
+            for (int q = 0; q < qualificationCount; q++) {
+                qualified.add(recipes[buffer.getInt()]);
+            }
+            problem.addMachine(new Machine(id, capacity, setupTime, removalTime, interBatchDelay, qualified));
+        }
+        for (int i = 0; i < jobCount; i++) {
+            Job job = new Job(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            int operationCount = buffer.getInt();
+            for (int k = 0; k < operationCount; k++) {
+                int id = buffer.getInt();
+                int processingTime = buffer.getInt();
+                String recipe = recipes[buffer.getInt()];
+                int minTimeLag = buffer.getInt();
+                int maxTimeLag = buffer.getInt();
+                int eligibleCount = buffer.getInt();
+                List<Integer> eligible = new ArrayList<>(eligibleCount);
+                for (int e = 0; e < eligibleCount; e++) {
+                    eligible.add(buffer.getInt());
+                }
+                Operation op = new Operation(id, job, k, processingTime, recipe, eligible);
+                op.setTimeLags(minTimeLag, maxTimeLag);
+                job.addOperation(op);
+            }
+            problem.addJob(job);
+        }
+        return problem;
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.*;
+
+/* Replanning when the fab moves on: the previous plan is kept for everything that is not affected by the update and only the change is
+   batched again, then the annealing runs a number of iterations proportional to the size of the change.
+   - completed operations leave the problem, a job without remaining operation leaves it too. The next operation of a job cannot start before
+     the end of its completed ones plus their min time lag, carried by the release date of the job (the max time lag of a completed operation is lost)
+   - batches started before the time of the update, or holding an operation reported started, are frozen at their start time, first on their machine
+   - the other batches keep their machine and order, except on the machines that went down: their jobs are batched again by the PBIA with the new lots
+   Operations and batches keep their ids from one plan to the next so the updates can refer to them */
+public class RollingHorizon {
+    private int horizonLength;
+    private double temperature;
+    private int iterationsPerOperation;
+    private SplittableRandom seeds;
+
+    /* The horizon of every new plan starts at the time of its update, the annealing cools from the given temperature to 0.1 over its iterations */
+    public RollingHorizon(int horizonLength, double temperature, int iterationsPerOperation, long seed) {
+        this.horizonLength = horizonLength;
+        this.temperature = temperature;
+        this.iterationsPerOperation = iterationsPerOperation;
+        this.seeds = new SplittableRandom(seed);
+    }
+
+    /* New plan on a new problem built from the one of the previous plan and the update, the problem is reached through Solution.getProblem() */
+    public Solution replan(Solution previous, HorizonUpdate update) {
+        Problem old = previous.getProblem();
+        int now = update.getNow();
+        Problem problem = new Problem(now + horizonLength);
+        for (Machine m : old.getMachines()) {
+            problem.addMachine(new Machine(m.getId(), m.getCapacity(), m.getSetupTime(), m.getRemovalTime(), m.getInterBatchDelay(),
+                                           new ArrayList<>(m.getQualifiedRecipes())));
+        }
+
+        /* the jobs with a planned operation on a machine that went down are batched again */
+        boolean[] rebatched = new boolean[old.getJobs().size()];
+        for (Batch batch : previous.getBatches()) {
+            if (frozenStart(batch, previous, update) < 0 && update.isDown(batch.getMachineId())) {
+                for (Operation op : batch.getOperations()) rebatched[op.getJob().getIndex()] = true;
+            }
+        }
+
+        Operation[] copies = new Operation[old.getOperationCount()];
+        List<Job> inserted = new ArrayList<>();
+        for (Job job : old.getJobs()) {
+            int release = job.getReleaseDate();
+            for (Operation op : job.getOperations()) {
+                int start = previous.getStartTime(op);
+                if (update.isCompleted(op) && start >= 0) {
+                    release = Math.max(release, start + op.getProcessingTime() + op.getMinTimeLag());
+                }
+            }
+            Job copy = copy(job, release, update, copies);
+            if (copy.getOperations().isEmpty()) continue;
+            problem.addJob(copy);
+            if (rebatched[job.getIndex()]) inserted.add(copy);
+        }
+        for (Job job : update.getNewJobs()) {
+            Job copy = copy(job, job.getReleaseDate(), update, null);
+            problem.addJob(copy);
+            inserted.add(copy);
+        }
+
+        /* frozen batches first on every machine, then the batches still planned in their previous order */
+        Solution solution = new Solution(problem);
+        solution.setNow(now);
+        for (Machine machine : old.getMachines()) {
+            List<Batch> sequence = previous.getMachineSequence(machine.getId());
+            for (Batch batch : sequence) {
+                int frozenStart = frozenStart(batch, previous, update);
+                if (frozenStart >= 0) carry(solution, batch, frozenStart, update, copies, null);
+            }
+            if (update.isDown(machine.getId())) continue;
+            for (Batch batch : sequence) {
+                if (frozenStart(batch, previous, update) < 0) carry(solution, batch, -1, update, copies, rebatched);
+            }
+        }
+
+        int changed = 0;
+        for (Job job : inserted) {
+            for (Operation op : job.getOperations()) {
+                if (solution.getBatchForOperation(op) == null) changed++;
+            }
+        }
+        new InitialSolution(problem).insert(solution, inserted);
+
+        /* the effort follows the size of the change, not the size of the plan */
+        int iterations = iterationsPerOperation * Math.max(1, changed);
+        double coolingRate = Math.pow(0.1 / temperature, 1.0 / iterations);
+        /* the annealing schedules the plan once before its first iteration, and reports orders closing a cycle as for any initial solution */
+        SimulatedAnnealing annealing = new SimulatedAnnealing(problem, temperature, coolingRate, iterations, seeds.nextLong());
+        return annealing.solve(solution);
+    }
+
+    /* Time a batch of the previous plan is frozen at, or -1 when it can still be changed */
+    private int frozenStart(Batch batch, Solution previous, HorizonUpdate update) {
+        if (batch.isFrozen()) return batch.getFrozenStart();
+        int start = batch.getStartTime();
+        if (start >= 0 && start < update.getNow()) return start;
+        for (Operation op : batch.getOperations()) {
+            if (update.isStarted(op)) return start >= 0 ? Math.min(start, update.getNow()) : update.getNow();
+        }
+        return -1;
+    }
+
+    /* Copy of a job for the new problem without its completed operations, on the machines still up. An operation left without machine stays
+       out of the batches, as the PBIA leaves the operations no machine can process. The copies are indexed by the global index of the operations
+       in the previous problem when an array is given */
+    private Job copy(Job job, int release, HorizonUpdate update, Operation[] copies) {
+        Job copy = new Job(job.getId(), release, job.getPriority(), job.getWaferCount());
+        for (Operation op : job.getOperations()) {
+            if (update.isCompleted(op)) continue;
+            List<Integer> eligible = new ArrayList<>();
+            for (int machineId : op.getEligibleMachines()) {
+                if (!update.isDown(machineId)) eligible.add(machineId);
+            }
+            Operation opCopy = new Operation(op.getId(), copy, copy.getOperations().size(), op.getProcessingTime(), op.getRecipe(), eligible);
+            opCopy.setTimeLags(op.getMinTimeLag(), op.getMaxTimeLag());
+            copy.addOperation(opCopy);
+            if (copies != null) copies[op.getGlobalIndex()] = opCopy;
+        }
+        return copy;
+    }
+
+    /* Add a batch of the previous plan at the end of its machine, without its completed operations and the ones of the jobs batched again,
+       at the start time it had in the previous plan */
+    private void carry(Solution solution, Batch batch, int frozenStart, HorizonUpdate update, Operation[] copies, boolean[] rebatched) {
+        int machineId = batch.getMachineId();
+        Batch copy = new Batch(batch.getId(), machineId, solution.getMachineSequence(machineId).size());
+        for (Operation op : batch.getOperations()) {
+            if (update.isCompleted(op)) continue;
+            if (rebatched != null && rebatched[op.getJob().getIndex()]) continue;
+            copy.addOperation(copies[op.getGlobalIndex()]);
+        }
+        if (copy.getOperations().isEmpty()) return;
+        copy.setFrozenStart(frozenStart);
+        solution.addBatch(copy);
+        /* the batch keeps its previous start until the plan is scheduled again, the PBIA places the new lots after the carried plan */
+        int start = frozenStart >= 0 ? frozenStart : batch.getStartTime();
+        if (start >= 0) solution.setBatchStartTime(copy, start);
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/* Record of a solver run: the solver with its parameters and seed, the problem it ran on and the best solution it found, enough to run it again.
+   The random numbers of a run only come from streams derived from its seed, per chain, part and iteration, and the threads never share a
+   generator, so running a manifest again on the same problem gives the same best solution bit for bit, whatever the number of threads or
+   speculated neighbors. Only the runs cooled by the iterations are recorded, a run until a deadline depends on the speed of the machine.
+   Text format, one comma separated record per line as the instance files:
+     solver,<SimulatedAnnealing|ParallelTempering|Decomposition>
+     seed,<seed>
+     parameter,<name>,<value>                   one line per parameter of the solver
+     problem,<digest>                           digest of the problem, written once the run is over
+     best,<objective>,<structure hash>          best solution of the run */
+public class RunManifest {
+    public static final String ANNEALING = "SimulatedAnnealing";
+    public static final String TEMPERING = "ParallelTempering";
+    public static final String DECOMPOSITION = "Decomposition";
+
+    private String solver;
+    private long seed;
+    private Map<String, String> parameters = new LinkedHashMap<>();
+    private boolean recorded;
+    private long problemDigest;
+    private double bestObjective;
+    private long bestHash;
+
+    public RunManifest(String solver, long seed) {
+        if (!solver.equals(ANNEALING) && !solver.equals(TEMPERING) && !solver.equals(DECOMPOSITION)) {
+            throw new IllegalArgumentException("Unknown solver " + solver);
+        }
+        this.solver = solver;
+        this.seed = seed;
+    }
+
+    /* The speculated neighbors and the checkpoints do not change the result, the capacity of the evaluation cache does as a cached objective
+       may differ from the evaluated one in its last bits. The checkpoint interval is only recorded, a replay saves no checkpoint */
+    public static RunManifest annealing(double temperature, double coolingRate, int maxIterations, int speculation, long seed) {
+        RunManifest manifest = new RunManifest(ANNEALING, seed);
+        manifest.setParameter("temperature", temperature);
+        manifest.setParameter("coolingRate", coolingRate);
+        manifest.setParameter("maxIterations", maxIterations);
+        manifest.setParameter("cacheCapacity", SimulatedAnnealing.DEFAULT_CACHE_CAPACITY);
+        manifest.setParameter("guidance", SimulatedAnnealing.DEFAULT_GUIDANCE);
+        manifest.setParameter("speculation", speculation);
+        manifest.setParameter("checkpointInterval", 0);
+        return manifest;
+    }
+
+    /* Manifest of an annealing as it is configured, with the seed it drew at construction when it was given none */
+    public static RunManifest annealing(SimulatedAnnealing annealing) {
+        RunManifest manifest = new RunManifest(ANNEALING, annealing.getSeed());
+        manifest.setParameter("temperature", annealing.getTemperature());
+        manifest.setParameter("coolingRate", annealing.getCoolingRate());
+        manifest.setParameter("maxIterations", annealing.getMaxIterations());
+        manifest.setParameter("cacheCapacity", annealing.getCacheCapacity());
+        manifest.setParameter("guidance", annealing.getGuidance());
+        manifest.setParameter("speculation", annealing.getSpeculation());
+        manifest.setParameter("checkpointInterval", annealing.getCheckpointInterval());
+        return manifest;
+    }
+
+    public static RunManifest tempering(int chainCount, double maxTemperature, double minTemperature, int iterationsPerRound, int rounds, long seed) {
+        RunManifest manifest = new RunManifest(TEMPERING, seed);
+        manifest.setParameter("chainCount", chainCount);
+        manifest.setParameter("maxTemperature", maxTemperature);
+        manifest.setParameter("minTemperature", minTemperature);
+        manifest.setParameter("iterationsPerRound", iterationsPerRound);
+        manifest.setParameter("rounds", rounds);
+        return manifest;
+    }
+
+    public static RunManifest decomposition(int partCount, double temperature, double coolingRate, int iterationsPerRound, int rounds, long seed) {
+        RunManifest manifest = new RunManifest(DECOMPOSITION, seed);
+        manifest.setParameter("partCount", partCount);
+        manifest.setParameter("temperature", temperature);
+        manifest.setParameter("coolingRate", coolingRate);
+        manifest.setParameter("iterationsPerRound", iterationsPerRound);
+        manifest.setParameter("rounds", rounds);
+        return manifest;
+    }
+
+    public String getSolver() { return solver; }
+    public long getSeed() { return seed; }
+    public Map<String, String> getParameters() { return Collections.unmodifiableMap(parameters); }
+    public boolean isRecorded() { return recorded; }
+    public double getBestObjective() { return bestObjective; }
+    public long getBestHash() { return bestHash; }
+
+    /* Doubles are written with Double.toString, which reads back to the same bits */
+    public void setParameter(String name, double value) { parameters.put(name, Double.toString(value)); }
+    public void setParameter(String name, long value) { parameters.put(name, Long.toString(value)); }
+
+    /* Run the solver from the solution of the PBIA and record the problem and the best solution found */
+    public Solution run(Problem problem) {
+        Solution best = solve(problem);
+        record(problem, best);
+        return best;
+    }
+
+    /* Record the problem and the best solution of a run made outside the manifest, from the solution of the PBIA with the same solver */
+    public void record(Problem problem, Solution best) {
+        problemDigest = digest(problem);
+        bestObjective = best.getObjectiveValue();
+        bestHash = best.getStructureHash();
+        recorded = true;
+    }
+
+    /* Run a recorded manifest again, the best solution has to be the recorded one */
+    public Solution replay(Problem problem) {
+        if (!recorded) throw new IllegalStateException("The manifest holds no run to replay");
+        if (digest(problem) != problemDigest) throw new IllegalArgumentException("The manifest was recorded on another problem");
+        Solution best = solve(problem);
+        if (Double.doubleToLongBits(best.getObjectiveValue()) != Double.doubleToLongBits(bestObjective) || best.getStructureHash() != bestHash) {
+            throw new IllegalStateException("The replay found " + best.getObjectiveValue() + " (hash " + best.getStructureHash() + ") instead of "
+                                            + bestObjective + " (hash " + bestHash + ")");
+        }
+        return best;
+    }
+
+    private Solution solve(Problem problem) {
+        Solution initial = new InitialSolution(problem).build();
+        switch (solver) {
+            case ANNEALING:
+                SimulatedAnnealing annealing = new SimulatedAnnealing(problem, getDouble("temperature"), getDouble("coolingRate"),
+                                                                      getInt("maxIterations"), seed);
+                annealing.setCacheCapacity(getInt("cacheCapacity"));
+                /* manifests written before the guided moves ran without them */
+                annealing.setGuidance(parameters.containsKey("guidance") ? getDouble("guidance") : 0);
+                annealing.setSpeculation(getInt("speculation"));
+                return annealing.solve(initial);
+            case TEMPERING:
+                return new ParallelTempering(problem, getInt("chainCount"), getDouble("maxTemperature"), getDouble("minTemperature"),
+                                             getInt("iterationsPerRound"), getInt("rounds"), seed).solve(initial);
+            default:
+                return new Decomposition(problem, getInt("partCount"), getDouble("temperature"), getDouble("coolingRate"),
+                                         getInt("iterationsPerRound"), getInt("rounds"), seed).solve(initial);
+        }
+    }
+
+    private String get(String name) {
+        String value = parameters.get(name);
+        if (value == null) throw new IllegalStateException("Parameter " + name + " missing from the " + solver + " manifest");
+        return value;
+    }
+
+    private double getDouble(String name) { return Double.parseDouble(get(name)); }
+    private int getInt(String name) { return Integer.parseInt(get(name)); }
+
+    /* FNV-1a over every field of the problem read by the solvers */
+    public static long digest(Problem problem) {
+        long h = 0xCBF29CE484222325L;
+        h = step(h, problem.getHorizon());
+        for (Machine machine : problem.getMachines()) {
+            h = step(h, machine.getId());
+            h = step(h, machine.getCapacity());
+            h = step(h, machine.getSetupTime());
+            h = step(h, machine.getRemovalTime());
+            h = step(h, machine.getInterBatchDelay());
+            for (String recipe : machine.getQualifiedRecipes()) h = step(h, recipe.hashCode());
+        }
+        for (Job job : problem.getJobs()) {
+            h = step(h, job.getId());
+            h = step(h, job.getReleaseDate());
+            h = step(h, job.getPriority());
+            h = step(h, job.getWaferCount());
+            for (Operation op : job.getOperations()) {
+                h = step(h, op.getId());
+                h = step(h, op.getProcessingTime());
+                h = step(h, op.getRecipe().hashCode());
+                h = step(h, op.getMinTimeLag());
+                h = step(h, op.getMaxTimeLag());
+                for (int machineId : op.getEligibleMachines()) h = step(h, machineId);
+            }
+        }
+        return h;
+    }
+
+    private static long step(long h, int value) {
+        return (h ^ value) * 0x100000001B3L;
+    }
+
+    public void write(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    public void write(Writer writer) throws IOException {
+        writer.write("solver," + solver + "\n");
+        writer.write("seed," + seed + "\n");
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            writer.write("parameter," + parameter.getKey() + "," + parameter.getValue() + "\n");
+        }
+        if (recorded) {
+            writer.write("problem," + problemDigest + "\n");
+            writer.write("best," + bestObjective + "," + bestHash + "\n");
+        }
+        writer.flush();
+    }
+
+    public static RunManifest read(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    public static RunManifest read(BufferedReader reader) throws IOException {
+        String solver = null;
+        Long seed = null;
+        Map<String, String> parameters = new LinkedHashMap<>();
+        Long problemDigest = null;
+        String[] best = null;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.charAt(0) == '#') continue;
+            String[] fields = line.split(",", -1);
+            try {
+                switch (fields[0]) {
+                    case "solver": solver = fields[1]; break;
+                    case "seed": seed = Long.parseLong(fields[1]); break;
+                    case "parameter": parameters.put(fields[1], fields[2]); break;
+                    case "problem": problemDigest = Long.parseLong(fields[1]); break;
+                    case "best": best = fields; break;
+                    default: throw new IllegalArgumentException("unknown record " + fields[0]);
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (solver == null || seed == null) throw new IllegalArgumentException("The manifest has no solver or no seed");
+        RunManifest manifest = new RunManifest(solver, seed);
+        manifest.parameters.putAll(parameters);
+        if (problemDigest != null && best != null) {
+            manifest.problemDigest = problemDigest;
+            manifest.bestObjective = Double.parseDouble(best[1]);
+            manifest.bestHash = Long.parseLong(best[2]);
+            manifest.recorded = true;
+        }
+        return manifest;
+    }
+}
@@ -1,65 +1,276 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class SimulatedAnnealing {
+    /* Outcome of one iteration of the annealing */
+    public static final int NO_NEIGHBOR = 0;
+    public static final int INFEASIBLE = 1;
+    public static final int ACCEPTED = 2;
+    public static final int REJECTED = 3;
+    
+    /* Kinds of moves of the article */
+    public static final int BATCH_MOVE = 0;
+    public static final int OPERATION_MOVE = 1;
+    public static final int OPERATION_SWITCH = 2;
+    public static final String[] MOVE_NAMES = {"BatchMove", "OperationMove", "OperationSwitch"};
+    /* Neighbors kept by the evaluation cache by default: none, the moves rarely give back a neighbor already seen (1 to 3% of the lookups on
+       the generated instances), which does not pay for the hashing and the lookups. 1 << 14 is a fair capacity when it is turned on */
+    public static final int DEFAULT_CACHE_CAPACITY = 0;
+    /* Iterations between two rankings of the batches for the guided moves, and share of the batches ranked */
+    public static final int GUIDANCE_INTERVAL = 128;
+    public static final double DEFAULT_GUIDANCE = 0.7;
+    private static final int GUIDED_SHARE = 8;
+    
     private Problem problem;
     private double temperature;
     private double coolingRate;
     private int maxIterations;
-    private Random random;
+    /* Every iteration draws from its own stream of random numbers, seeded by the seed of the run and the index of the iteration, so the
+       neighbor of an iteration only depends on the solution it starts from and not on the draws of the iterations before */
+    private long seed;
+    private StreamRandom random;
+    /* Objective difference of the last scheduled neighbor */
+    private double lastDelta;
+    /* Kind of the last move applied by generateNeighbor */
+    private int lastMoveType;
+    /* Iterations done by this annealing, used to sample the timers */
+    private long iterationCount;
+    private SolverMetrics metrics;
+    /* Best solution of the running solve, readable from other threads while the annealing goes on */
+    private volatile SolutionSnapshot bestSoFar;
+    /* Checkpoints written every checkpointInterval iterations by a background thread, only the latest one waits when the disk is slow */
+    private Path checkpointPath;
+    private long checkpointInterval;
+    private AtomicReference<Checkpoint> pendingCheckpoint = new AtomicReference<>();
+    private volatile IOException checkpointError;
+    /* Objectives of the neighbors already evaluated, keyed by their structure hash: the start times and the objective only depend on the
+       structure for a given problem and max time lag rule. The incremental sums may differ in their last bits from one path to another, so a
+       neighbor taken from the cache is evaluated again once kept. The cache is cleared when the annealing goes on with another solution or
+       graph, a resumed run starts with an empty one */
+    private int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+    private EvaluationCache cache;
+    private Solution cacheSolution;
+    private DisjunctiveGraph cacheGraph;
+    /* Speculative steps: the neighbors of the next iterations are generated, scheduled and evaluated at the same time by the workers, each
+       on its own replica of the current solution, then the iterations take them in order and stop at the first one kept, the following
+       ones being generated again from the new current solution. The random numbers of an iteration come from its own stream and a neighbor
+       is reverted exactly, so a replica is the current solution of the iteration it works for and the run is the sequential one */
+    private int speculation = 1;
+    private ExecutorService speculators;
+    private Worker[] workers;
+    private Candidate[] candidates;
+    private long prefetchFrom;
+    private int prefetchCount;
+    /* iterations whose neighbor was kept since the last speculative step, replayed by the workers on their replicas */
+    private List<Long> keptIterations = new ArrayList<>();
+    /* and the structure hash of each, a replayed neighbor with another hash means the replica drifted */
+    private List<Long> keptKeys = new ArrayList<>();
+    /* Guided moves: with probability guidance, batchMove picks its batch among the batches with the least horizon slack, whose late work
+       costs fMov and fXFac, and operationMove takes its operation from one of the least filled batches, which lower fBatch. The batches are
+       ranked from the schedule of the current solution at the first iteration of every GUIDANCE_INTERVAL and kept as one operation of each,
+       the batch holding it being picked, so a ranking holds for the replicas of a speculative step too */
+    private double guidance = DEFAULT_GUIDANCE;
+    private int[] criticalOperations;
+    private int[] underfilledOperations;
+    private long guidanceInterval = -1;
+    /* counts of the moves generated again, already counted when they were first generated */
+    private SolverMetrics replayCounts;
+
+    /* A neighbor generated, scheduled and evaluated by a worker on its replica, for the iteration of the same index, then reverted */
+    private static class Candidate {
+        SolverMetrics counts = new SolverMetrics(MOVE_NAMES, 1, 1);
+        boolean moved;
+        int moveType;
+        long key;
+        boolean feasible;
+        double objective;
+        /* random number of the acceptation rule, the first one drawn after the move */
+        double draw;
+        long generation;
+        long scheduling;
+        long evaluation;
+    }
+
+    /* Generator of the random numbers of an iteration, reseeded in place at every iteration instead of a new SplittableRandom. It follows
+       SplittableRandom step for step (SplitMix64 with the golden gamma, the same mixing and bounded draws) so a seed gives the same numbers */
+    private static final class StreamRandom {
+        private static final long GAMMA = 0x9E3779B97F4A7C15L;
+        private long state;
+
+        StreamRandom(long seed) { state = seed; }
+
+        void reseed(long seed) { state = seed; }
+
+        long nextLong() {
+            long z = state += GAMMA;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        int nextInt() {
+            long z = state += GAMMA;
+            z = (z ^ (z >>> 33)) * 0x62A9D9ED799705F5L;
+            return (int) (((z ^ (z >>> 28)) * 0xCB24D0A5C88C35B3L) >>> 32);
+        }
+
+        /* Uniform in [0, bound), the draws beyond the last multiple of the bound are rejected */
+        int nextInt(int bound) {
+            if (bound <= 0) throw new IllegalArgumentException("The bound must be positive: " + bound);
+            int r = nextInt();
+            int m = bound - 1;
+            if ((bound & m) == 0) return r & m;
+            for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1);
+            return r;
+        }
+
+        double nextDouble() { return (nextLong() >>> 11) * 0x1.0p-53; }
+
+        boolean nextBoolean() { return nextInt() < 0; }
+    }
+
+    private static class Worker {
+        SimulatedAnnealing annealing;
+        Solution replica;
+        DisjunctiveGraph graph;
+        Candidate candidate = new Candidate();
+
+        /* The replica follows the current solution: the neighbors kept since the last step are replayed on it, and it is copied again when it
+           has none yet or when a replayed neighbor is not the kept one */
+        void prepare(Solution current, boolean maxLagsEnforced, List<Long> kept, List<Long> keys) {
+            for (int i = 0; replica != null && i < kept.size(); i++) {
+                if (!annealing.replay(replica, graph, kept.get(i), keys.get(i))) replica = null;
+            }
+            if (replica == null) {
+                replica = current.clone();
+                graph = annealing.schedule(replica, maxLagsEnforced);
+            }
+        }
+    }
     
     public SimulatedAnnealing(Problem problem, double temperature, double coolingRate, int maxIterations) {
+        this(problem, temperature, coolingRate, maxIterations, new SplittableRandom().nextLong());
+    }
+    
+    /* Seeded annealing, every chain of a parallel run gets its own seed */
+    public SimulatedAnnealing(Problem problem, double temperature, double coolingRate, int maxIterations, long seed) {
         this.problem = problem;
         this.temperature = temperature;
         this.coolingRate = coolingRate;
         this.maxIterations = maxIterations;
-        this.random = new Random();
+        this.seed = seed;
+        this.random = new StreamRandom(seed);
+        this.metrics = new SolverMetrics(MOVE_NAMES, 16, 100);
+    }
+
+    public SolverMetrics getMetrics() { return metrics; }
+    /* Seed of the run, drawn at construction when none is given, a run with the same seed and parameters gives the same solution */
+    public long getSeed() { return seed; }
+    public double getTemperature() { return temperature; }
+    public double getCoolingRate() { return coolingRate; }
+    public int getMaxIterations() { return maxIterations; }
+    public int getCacheCapacity() { return cacheCapacity; }
+    public double getGuidance() { return guidance; }
+    public int getSpeculation() { return speculation; }
+    /* 0 when the run saves no checkpoint */
+    public long getCheckpointInterval() { return checkpointPath == null ? 0 : checkpointInterval; }
+    public Solution getBestSoFar() {
+        SolutionSnapshot best = bestSoFar;
+        return best == null ? null : best.toSolution();
+    }
+
+    /* Save the state of the search to the given file every interval iterations, resume(path) continues from the last one */
+    public void setCheckpoint(Path path, long interval) {
+        if (interval <= 0) throw new IllegalArgumentException("The checkpoint interval has to be positive: " + interval);
+        this.checkpointPath = path;
+        this.checkpointInterval = interval;
+    }
+    /* Chains of a parallel run can share one metrics instance */
+    public void setMetrics(SolverMetrics metrics) { this.metrics = metrics; }
+    /* Number of evaluated neighbors kept, 0 (the default) evaluates every neighbor */
+    public void setCacheCapacity(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("The capacity of the cache cannot be negative: " + capacity);
+        this.cacheCapacity = capacity;
+        this.cache = null;
+    }
+    /* Share of the batch and operation moves guided by the slack and the filling of the batches, 0 picks every batch uniformly */
+    public void setGuidance(double probability) {
+        if (probability < 0 || probability > 1) throw new IllegalArgumentException("The guidance is a probability: " + probability);
+        this.guidance = probability;
+        this.criticalOperations = null;
+    }
+    /* Number of neighbors scheduled at the same time by solve and resume, 1 runs the iterations one after the other. The result for a given
+       seed does not depend on it */
+    public void setSpeculation(int candidates) {
+        if (candidates <= 0) throw new IllegalArgumentException("The number of speculated neighbors has to be positive: " + candidates);
+        this.speculation = candidates;
     }
     
-    /* Method for creation of the new neighboor based on the 3 kinds of move descirbed in the article, few attempts possible to generate a valid one */
-    private Solution generateNeighbor(Solution current) {
+    /* Method for creation of the new neighboor based on the 3 kinds of move descirbed in the article, few attempts possible to generate a valid one.
+       The move is applied in place on the current solution and stays recorded so the caller can commit or roll it back. A move rejected by the
+       NeighborFilter is reverted and counts as a failed attempt, it is never scheduled. The attempts are counted in the given metrics */
+    private boolean generateNeighbor(Solution current, boolean maxLagsEnforced, SolverMetrics counts) {
         double rand = random.nextDouble();
         
-        Solution neighbor = null;
+        boolean moved = false;
         int attempts = 0;
-        String moveType = "";
         
-        while (neighbor == null && attempts < 20) {
+        while (!moved && attempts < 20) {
+            current.beginMove();
+            int firstTouched = current.getTouchedBatches().size();
+            int moveType = rand < 0.50 ? BATCH_MOVE : rand < 0.75 ? OPERATION_MOVE : OPERATION_SWITCH;
             try {
-                if (rand < 0.50) {
-                    moveType = "BatchMove";
-                    neighbor = batchMove(current);
-                } else if (rand < 0.75) {
-                    moveType = "OperationMove";
-                    neighbor = operationMove(current);
+                moved = applyMove(current, moveType);
+                if (!moved) {
+                    counts.count(moveType, SolverMetrics.FAILED);
                 } else {
-                    moveType = "OperationSwitch";
-                    neighbor = operationSwitch(current);
+                    int reason = NeighborFilter.check(current, firstTouched, maxLagsEnforced);
+                    if (reason != NeighborFilter.PASSED) {
+                        counts.filtered(reason);
+                        moved = false;
+                    }
                 }
             } catch (Exception e) {
-                System.out.println("Exception in " + moveType + ": " + e.getMessage());
-                neighbor = null;
+                counts.error(moveType, e);
+                moved = false;
             }
             attempts++;
-            if (neighbor == null) {
+            if (!moved) {
+                current.rollbackMove();
                 rand = random.nextDouble();
+            } else {
+                lastMoveType = moveType;
+                counts.count(moveType, SolverMetrics.GENERATED);
             }
         }
         
-        if (neighbor == null && attempts >= 20) {
-            System.out.println("Error: Unable to generate a valid neighbor after 20 attempts.");
+        return moved;
+    }
+    /* Apply one move of the given kind in place, inside a move started with current.beginMove(). Returns false when it could not change the solution */
+    public boolean applyMove(Solution current, int moveType) {
+        switch (moveType) {
+            case BATCH_MOVE: return batchMove(current);
+            case OPERATION_MOVE: return operationMove(current);
+            case OPERATION_SWITCH: return operationSwitch(current);
+            default: throw new IllegalArgumentException("Unknown move type " + moveType);
         }
-        
-        return neighbor;
     }
-    /* Description of the 3 kinds of moves as descibed in the article */
-    private Solution batchMove(Solution current) {
-        Solution neighbor = current.clone();
-        List<Batch> batches = neighbor.getBatches();
+    
+    /* Description of the 3 kinds of moves as descibed in the article, each one returns false when it could not change the solution.
+       Frozen batches, already started when the plan was rebuilt, are never moved nor changed and stay first on their machine */
+    private boolean batchMove(Solution current) {
+        List<Batch> batches = current.getBatches();
         
-        if (batches.isEmpty()) return null;
+        if (batches.isEmpty()) return false;
         
-        Batch batch = batches.get(random.nextInt(batches.size()));
-        if (batch.getOperations().isEmpty()) return null;
+        Batch batch = pick(current, criticalOperations);
+        if (batch.getOperations().isEmpty() || batch.isFrozen()) return false;
         
         boolean changeMachine = random.nextDouble() < 0.3;
         
@@ -77,259 +288,595 @@ public class SimulatedAnnealing {
                     } while (newMachineId == batch.getMachineId());
                 }
                 
-                List<Operation> ops = new ArrayList<>(batch.getOperations());
-                batches.remove(batch);
-                
-                Batch newBatch = new Batch(batch.getId(), newMachineId, 0);
-                for (Operation o : ops) {
-                    newBatch.addOperation(o);
-                }
-                batches.add(newBatch);
-                
-                reassignPositions(neighbor, newMachineId);
-                return neighbor;
+                /* the batch becomes the first one of its new machine */
+                current.setBatchMachine(batch, newMachineId, current.getFirstMovablePosition(newMachineId));
+                return true;
             }
         }
         
-        if (!changeMachine) {
-            Map<Integer, List<Batch>> machineBatches = new HashMap<>();
-            for (Batch b : batches) {
-                if (!b.getOperations().isEmpty()) {
-                    machineBatches.computeIfAbsent(b.getMachineId(), k -> new ArrayList<>()).add(b);
-                }
-            }
-            
-            List<Batch> sameMachineBatches = machineBatches.get(batch.getMachineId());
-            if (sameMachineBatches == null || sameMachineBatches.size() <= 1) return null;
-            
-            sameMachineBatches.sort(Comparator.comparingInt(Batch::getPosition));
-            
-            int currentIndex = sameMachineBatches.indexOf(batch);
-            if (currentIndex < 0) return null;
-            
-            int newIndex = random.nextInt(sameMachineBatches.size());
-            if (newIndex == currentIndex) {
-                newIndex = (newIndex + 1) % sameMachineBatches.size();
-            }
-            
-            sameMachineBatches.remove(currentIndex);
-            sameMachineBatches.add(newIndex, batch);
-            
-            for (int i = 0; i < sameMachineBatches.size(); i++) {
-                sameMachineBatches.get(i).setPosition(i);
-            }
+        /* empty batches are removed between moves so the sequence of the machine only holds real batches */
+        List<Batch> sameMachineBatches = current.getMachineSequence(batch.getMachineId());
+        int first = current.getFirstMovablePosition(batch.getMachineId());
+        int movable = sameMachineBatches.size() - first;
+        if (movable <= 1) return false;
+        
+        int currentIndex = current.getMachinePosition(batch);
+        
+        int newIndex = first + random.nextInt(movable);
+        if (newIndex == currentIndex) {
+            newIndex = first + (newIndex - first + 1) % movable;
         }
         
-        return neighbor;
+        current.moveBatch(batch, newIndex);
+        return true;
     }
     
-    private Solution operationMove(Solution current) {
-        Solution neighbor = current.clone();
-        List<Batch> batches = neighbor.getBatches();
+    private boolean operationMove(Solution current) {
+        List<Batch> batches = current.getBatches();
         
-        List<Batch> candidateBatches = new ArrayList<>();
-        for (Batch b : batches) {
-            if (b.getOperations().size() >= 1) {
-                candidateBatches.add(b);
-            }
-        }
+        if (batches.isEmpty()) return false;
         
-        if (candidateBatches.isEmpty()) return null;
-        
-        Batch source = candidateBatches.get(random.nextInt(candidateBatches.size()));
+        /* empty batches are removed from the solution so every batch is a candidate */
+        Batch source = pick(current, underfilledOperations);
+        if (source.getOperations().isEmpty() || source.isFrozen()) return false;
         Operation op = source.getOperations().get(random.nextInt(source.getOperations().size()));
         
-        source.getOperations().remove(op);
-        
         if (random.nextBoolean()) {
-            List<Batch> compatibleBatches = new ArrayList<>();
-            for (Batch b : batches) {
-                if (b != source && b.getRecipe() != null && b.getRecipe().equals(op.getRecipe())) {
-                    Machine m = problem.getMachine(b.getMachineId());
-                    if (m != null && b.getOperations().size() < m.getCapacity()) {
-                        compatibleBatches.add(b);
-                    }
-                }
-            }
+            /* batches of the same recipe with room left, the source itself excluded */
+            List<Batch> compatibleBatches = current.getBatchIndex().getOpenBatches(op.getRecipeId());
+            int sourceIndex = current.getBatchIndex().getOpenIndex(source);
+            int count = compatibleBatches.size() - (sourceIndex >= 0 ? 1 : 0);
+            if (count <= 0) return false;
             
-            if (!compatibleBatches.isEmpty()) {
-                Batch target = compatibleBatches.get(random.nextInt(compatibleBatches.size()));
-                target.addOperation(op);
-            } else {
-                source.addOperation(op);
-            }
+            int pick = random.nextInt(count);
+            if (sourceIndex >= 0 && pick >= sourceIndex) pick++;
+            Batch target = compatibleBatches.get(pick);
+            if (target.isFrozen()) return false;
+            current.moveOperation(op, source, target);
         } else {
             List<Integer> eligible = op.getEligibleMachines();
-            if (!eligible.isEmpty()) {
-                int machineId = eligible.get(random.nextInt(eligible.size()));
-                Batch newBatch = new Batch(batches.size(), machineId, 0);
-                newBatch.addOperation(op);
-                batches.add(newBatch);
-                reassignPositions(neighbor, machineId);
-            } else {
-                source.addOperation(op);
-            }
+            if (eligible.isEmpty()) return false;
+            
+            int machineId = eligible.get(random.nextInt(eligible.size()));
+            /* the new batch is inserted first on the machine */
+            Batch newBatch = new Batch(current.nextBatchId(), machineId, current.getFirstMovablePosition(machineId));
+            current.addBatch(newBatch);
+            current.moveOperation(op, source, newBatch);
         }
         
         if (source.getOperations().isEmpty()) {
-            batches.remove(source);
-            reassignPositions(neighbor, source.getMachineId());
+            current.removeBatch(source);
         }
         
-        return neighbor;
+        return true;
     }
     
-    private Solution operationSwitch(Solution current) {
-        Solution neighbor = current.clone();
-        List<Batch> batches = neighbor.getBatches();
-        
-        Map<String, List<Batch>> recipeGroups = new HashMap<>();
-        for (Batch b : batches) {
-            if (!b.getOperations().isEmpty() && b.getRecipe() != null) {
-                recipeGroups.computeIfAbsent(b.getRecipe(), k -> new ArrayList<>()).add(b);
-            }
+    /* A batch of the guided ones with probability guidance, else any batch of the solution */
+    private Batch pick(Solution current, int[] guided) {
+        if (guidance > 0 && guided != null && guided.length > 0 && random.nextDouble() < guidance) {
+            Batch batch = current.getBatchForOperation(problem.getOperations().get(guided[random.nextInt(guided.length)]));
+            if (batch != null) return batch;
         }
-        
-        List<String> recipesWithMultipleBatches = new ArrayList<>();
-        for (Map.Entry<String, List<Batch>> entry : recipeGroups.entrySet()) {
-            if (entry.getValue().size() >= 2) {
-                recipesWithMultipleBatches.add(entry.getKey());
-            }
+        List<Batch> batches = current.getBatches();
+        return batches.get(random.nextInt(batches.size()));
+    }
+
+    /* Rank the batches of the current solution at the first iteration of an interval, or at the first one after the ranking was dropped */
+    private void guide(Solution current, DisjunctiveGraph graph, long index) {
+        if (guidance <= 0 || (criticalOperations != null && guidanceInterval == index / GUIDANCE_INTERVAL)) return;
+        guidanceInterval = index / GUIDANCE_INTERVAL;
+        graph.computeSlack();
+        List<Batch> movable = new ArrayList<>();
+        for (Batch batch : current.getBatches()) {
+            if (!batch.getOperations().isEmpty() && !batch.isFrozen()) movable.add(batch);
         }
+        int count = Math.max(1, movable.size() / GUIDED_SHARE);
+        movable.sort(Comparator.comparingInt(graph::getHorizonSlack).thenComparingInt(Batch::getId));
+        criticalOperations = firstOperations(movable, count);
+        movable.sort(Comparator.comparingDouble((Batch batch) -> (double) batch.getOperations().size() / problem.getMachine(batch.getMachineId()).getCapacity())
+                               .thenComparingInt(Batch::getId));
+        underfilledOperations = firstOperations(movable, count);
+    }
+
+    private static int[] firstOperations(List<Batch> batches, int count) {
+        int[] operations = new int[Math.min(count, batches.size())];
+        for (int i = 0; i < operations.length; i++) operations[i] = batches.get(i).getOperations().get(0).getGlobalIndex();
+        return operations;
+    }
+
+    private boolean operationSwitch(Solution current) {
+        /* recipes processed by at least two batches come from the index of the solution */
+        BatchIndex index = current.getBatchIndex();
+        if (index.getSharedRecipeCount() == 0) return false;
         
-        if (recipesWithMultipleBatches.isEmpty()) return null;
-        
-        String recipe = recipesWithMultipleBatches.get(random.nextInt(recipesWithMultipleBatches.size()));
-        List<Batch> sameBatches = recipeGroups.get(recipe);
+        List<Batch> sameBatches = index.getSharedRecipeBatches(random.nextInt(index.getSharedRecipeCount()));
         
         Batch b1 = sameBatches.get(random.nextInt(sameBatches.size()));
         Batch b2;
         do {
             b2 = sameBatches.get(random.nextInt(sameBatches.size()));
         } while (b1 == b2);
+        if (b1.isFrozen() || b2.isFrozen()) return false;
         
         Operation op1 = b1.getOperations().get(random.nextInt(b1.getOperations().size()));
         Operation op2 = b2.getOperations().get(random.nextInt(b2.getOperations().size()));
         
-        b1.getOperations().remove(op1);
-        b2.getOperations().remove(op2);
-        b1.addOperation(op2);
-        b2.addOperation(op1);
+        current.moveOperation(op1, b1, b2);
+        current.moveOperation(op2, b2, b1);
         
-        return neighbor;
+        return true;
     }
     
-    private void reassignPositions(Solution solution, int machineId) {
-        List<Batch> machineBatches = new ArrayList<>();
-        for (Batch b : solution.getBatches()) {
-            if (b.getMachineId() == machineId && !b.getOperations().isEmpty()) {
-                machineBatches.add(b);
+    /* Schedule a solution on its own disjunctive graph before annealing it, so every neighbor is compared to a feasible schedule.
+       The max time lags can only be kept when the solution already respects them, otherwise they are relaxed on the graph. Returns null when the orders contain a cycle */
+    public DisjunctiveGraph schedule(Solution current) {
+        DisjunctiveGraph graph = new DisjunctiveGraph(problem, current);
+        if (!graph.computeLongestPaths()) {
+            graph.setMaxLagsEnforced(false);
+            if (!graph.computeLongestPaths()) return null;
+        }
+        current.evaluate();
+        return graph;
+    }
+    
+    /* One iteration of the annealing at a given temperature: a neighbor is generated in place, scheduled and evaluated,
+       then kept if better or with the probability of the Metropolis rule, otherwise the move is reverted.
+       When a speculative step already scheduled the neighbor of this iteration on a replica, only the decision is taken here and the current
+       solution is changed once the neighbor is kept */
+    public int iterate(Solution current, DisjunctiveGraph graph, double temp) {
+        metrics.iteration();
+        long index = iterationCount++;
+        /* the clock is only read on the sampled iterations, which are also the ones reported to the flight recorder */
+        boolean timed = metrics.isSampled(index);
+        SolverEvents.Move event = null;
+        long started = 0;
+        if (timed) {
+            event = new SolverEvents.Move();
+            event.begin();
+            started = System.nanoTime();
+        }
+        double currentObjective = current.getObjectiveValue();
+        if (cacheCapacity > 0) {
+            if (cache == null) cache = new EvaluationCache(cacheCapacity);
+            if (cacheSolution != current || cacheGraph != graph) {
+                cache.clear();
+                cacheSolution = current;
+                cacheGraph = graph;
             }
         }
+        Candidate candidate = index >= prefetchFrom && index - prefetchFrom < prefetchCount ? candidates[(int) (index - prefetchFrom)] : null;
+        guide(current, graph, index);
+        int outcome;
+        boolean feasible;
+        long generated;
+        long scheduled;
+        long evaluated;
+        /* a kept speculated neighbor that is not the one generated again on the current solution sends the iteration back here once, without
+           the speculation, its counters are then counted twice */
+        evaluation:
+        for (;;) {
+            random.reseed(streamSeed(index));
+            if (candidate != null) {
+                metrics.addCounts(candidate.counts);
+                if (!candidate.moved) {
+                    metrics.noNeighbor();
+                    return NO_NEIGHBOR;
+                }
+                lastMoveType = candidate.moveType;
+            } else if (!generateNeighbor(current, graph.isMaxLagsEnforced(), metrics)) {
+                metrics.noNeighbor();
+                return NO_NEIGHBOR;
+            }
+            /* a speculated neighbor is only applied to the current solution once it is kept */
+            boolean applied = candidate == null;
+            generated = timed ? lap(SolverMetrics.GENERATION, started, applied ? -1 : candidate.generation) : 0;
         
-        machineBatches.sort(Comparator.comparingInt(Batch::getPosition));
-        
-        for (int i = 0; i < machineBatches.size(); i++) {
-            machineBatches.get(i).setPosition(i);
+            long key = 0;
+            int entry = -1;
+            if (cacheCapacity > 0) {
+                key = applied ? current.getStructureHash() : candidate.key;
+                entry = cache.find(key);
+                metrics.cacheLookup(entry >= 0);
+            }
+            /* only the start times reachable from the machines touched by the move are recomputed, unless the neighbor is already known */
+            feasible = entry >= 0 ? cache.isFeasible(entry) : applied ? graph.propagate() : candidate.feasible;
+            scheduled = timed ? lap(SolverMetrics.SCHEDULING, generated, applied ? -1 : candidate.scheduling) : 0;
+            evaluated = scheduled;
+            if (!feasible) {
+                if (applied) current.rollbackMove();
+                if (entry < 0 && cacheCapacity > 0) cache.put(key, false, 0);
+                outcome = INFEASIBLE;
+            } else {
+                metrics.count(lastMoveType, SolverMetrics.FEASIBLE);
+                /* only the jobs and batches touched by the move or by a start time change are re-evaluated */
+                if (entry >= 0) {
+                    lastDelta = cache.getObjective(entry) - currentObjective;
+                } else {
+                    if (applied) current.evaluate();
+                    double objective = applied ? current.getObjectiveValue() : candidate.objective;
+                    if (cacheCapacity > 0) cache.put(key, true, objective);
+                    lastDelta = objective - currentObjective;
+                }
+                if (timed) evaluated = lap(SolverMetrics.EVALUATION, scheduled, applied ? -1 : candidate.evaluation);
+            
+                /* checking accpetation criteria : yes if better and yes or no depending on the probability formula if not */
+                if (lastDelta > 0 || (applied ? random.nextDouble() : candidate.draw) < Math.exp(lastDelta / temp)) {
+                    if (!applied) {
+                        if (!replay(current, graph, index, candidate.key)) {
+                            /* the replicas drifted from the current solution, they are copied again at the next step */
+                            dropReplicas();
+                            candidate = null;
+                            continue evaluation;
+                        }
+                    } else {
+                        /* a cached neighbor is only scheduled once it is kept */
+                        if (entry >= 0) {
+                            graph.propagate();
+                            current.evaluate();
+                        }
+                        current.commitMove();
+                    }
+                    metrics.count(lastMoveType, SolverMetrics.ACCEPTED);
+                    if (lastDelta > 0) metrics.count(lastMoveType, SolverMetrics.IMPROVING);
+                    outcome = ACCEPTED;
+                    /* the neighbors speculated after this one started from the previous solution */
+                    if (workers != null) {
+                        keptIterations.add(index);
+                        keptKeys.add(current.getStructureHash());
+                        prefetchCount = 0;
+                    }
+                } else {
+                    if (applied) current.rollbackMove();
+                    outcome = REJECTED;
+                }
+            }
+            break;
         }
+        if (timed && event.shouldCommit()) {
+            event.moveType = MOVE_NAMES[lastMoveType];
+            event.outcome = outcome == INFEASIBLE ? "infeasible" : outcome == ACCEPTED ? "accepted" : "rejected";
+            event.generation = generated - started;
+            event.scheduling = scheduled - generated;
+            event.evaluation = evaluated - scheduled;
+            event.delta = feasible ? lastDelta : 0;
+            event.commit();
+        }
+        return outcome;
+    }
+
+    /* Time of a phase of the iteration, the one measured by the worker when the phase was speculated (not negative) */
+    private long lap(int timer, long since, long speculated) {
+        long nanos = speculated >= 0 ? speculated : System.nanoTime() - since;
+        metrics.time(timer, nanos);
+        return since + nanos;
+    }
+
+    /* Generate again the neighbor of a past iteration on a solution equal to the one it was generated from, then schedule and keep it.
+       False when the neighbor generated again does not have the structure hash it was kept with, the solution is then left unchanged */
+    private boolean replay(Solution solution, DisjunctiveGraph graph, long index, long key) {
+        if (replayCounts == null) replayCounts = new SolverMetrics(MOVE_NAMES, 1, 1);
+        random.reseed(streamSeed(index));
+        if (!generateNeighbor(solution, graph.isMaxLagsEnforced(), replayCounts)) return false;
+        if (solution.getStructureHash() != key) {
+            solution.rollbackMove();
+            return false;
+        }
+        graph.propagate();
+        solution.evaluate();
+        solution.commitMove();
+        return true;
+    }
+
+    /* Work of a worker in a speculative step: the neighbor of the given iteration on its replica, reverted once evaluated */
+    private void speculate(Worker worker, long index) {
+        Candidate candidate = worker.candidate;
+        Solution replica = worker.replica;
+        candidate.counts.clearCounts();
+        random.reseed(streamSeed(index));
+        long started = System.nanoTime();
+        candidate.moved = generateNeighbor(replica, worker.graph.isMaxLagsEnforced(), candidate.counts);
+        long generated = System.nanoTime();
+        candidate.generation = generated - started;
+        if (!candidate.moved) return;
+        candidate.moveType = lastMoveType;
+        candidate.draw = random.nextDouble();
+        candidate.key = replica.getStructureHash();
+        candidate.feasible = worker.graph.propagate();
+        long scheduled = System.nanoTime();
+        candidate.scheduling = scheduled - generated;
+        if (candidate.feasible) {
+            replica.evaluate();
+            candidate.objective = replica.getObjectiveValue();
+        }
+        candidate.evaluation = System.nanoTime() - scheduled;
+        replica.rollbackMove();
+    }
+
+    /* Schedule the neighbors of the next iterations on the workers, at most ahead of them, unless the next iteration already has its neighbor.
+       All the workers first bring their replica to the current solution */
+    private void speculate(Solution current, DisjunctiveGraph graph, long ahead) {
+        long index = iterationCount;
+        if (index >= prefetchFrom && index - prefetchFrom < prefetchCount) return;
+        int count = (int) Math.max(1, Math.min(workers.length, ahead));
+        boolean maxLagsEnforced = graph.isMaxLagsEnforced();
+        /* a step never crosses an interval of the guidance, its neighbors all use the ranking of its first iteration. The neighbors kept since
+           the last step are replayed with the ranking they were generated with, before the workers take the new one */
+        guide(current, graph, index);
+        int[] critical = criticalOperations;
+        int[] underfilled = underfilledOperations;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int w = 0; w < workers.length; w++) {
+            Worker worker = workers[w];
+            long candidateIndex = w < count ? index + w : -1;
+            tasks.add(() -> {
+                worker.prepare(current, maxLagsEnforced, keptIterations, keptKeys);
+                worker.annealing.criticalOperations = critical;
+                worker.annealing.underfilledOperations = underfilled;
+                if (candidateIndex >= 0) worker.annealing.speculate(worker, candidateIndex);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> done : speculators.invokeAll(tasks)) done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during a speculative step", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A speculative step failed", e.getCause());
+        }
+        keptIterations.clear();
+        keptKeys.clear();
+        for (int w = 0; w < count; w++) candidates[w] = workers[w].candidate;
+        prefetchFrom = index;
+        prefetchCount = count;
+    }
+
+    /* The workers copy the current solution again at the next step, as after a checkpoint the current solution is another one */
+    private void dropReplicas() {
+        for (Worker worker : workers) {
+            worker.replica = null;
+            worker.graph = null;
+        }
+        keptIterations.clear();
+        keptKeys.clear();
+        prefetchCount = 0;
+    }
+
+    /* Seed of the random numbers of an iteration. The generators of two seeds apart by a multiple of the gamma of SplittableRandom draw the
+       same numbers shifted, the SplitMix64 finalizer spreads the consecutive indices over unrelated seeds */
+    private long streamSeed(long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 
     /* Main method to perform the process of SA */
     public Solution solve(Solution initial) {
+        return anneal(initial, false, 0, 0, null);
+    }
+
+    /* Anytime version of the annealing, returns the best solution found before the deadline.
+       The temperature follows the same geometric curve as the iteration schedule, from the initial temperature down to the one reached after
+       maxIterations (at least 0.1), but stretched over the time left so the search always ends cold. The run also stops after stagnationLimit
+       iterations without a new best solution when the limit is positive. Every new best solution is handed to the listener on the solver thread
+       as the immutable snapshot the search keeps, so it can be kept as is and toSolution() only pays for the ones actually used; a Flow
+       subscriber is reached without blocking with best -> publisher.offer(best, null) */
+    public Solution solve(Solution initial, Instant deadline, long stagnationLimit, Consumer<SolutionSnapshot> listener) {
+        /* the deadline is moved to the monotonic clock once, the scheduling of the initial solution counts in the budget */
+        long end = System.nanoTime() + Duration.between(Instant.now(), deadline).toNanos();
+        return anneal(initial, true, end, stagnationLimit, listener);
+    }
+
+    public Solution solve(Solution initial, Instant deadline) {
+        return solve(initial, deadline, 0, null);
+    }
+
+    /* Continue the run saved in a checkpoint: the temperatures, the iteration limit and the seed are the saved ones,
+       so a run driven by the iterations goes on exactly as if it had never stopped */
+    public Solution resume(Path checkpoint) throws IOException {
+        Checkpoint state = restore(checkpoint);
+        return anneal(state, false, 0, 0, null);
+    }
+
+    /* Continue a saved run until a new deadline, cooling from the saved temperature down to the final one over the time left */
+    public Solution resume(Path checkpoint, Instant deadline, long stagnationLimit, Consumer<SolutionSnapshot> listener) throws IOException {
+        Checkpoint state = restore(checkpoint);
+        long end = System.nanoTime() + Duration.between(Instant.now(), deadline).toNanos();
+        return anneal(state, true, end, stagnationLimit, listener);
+    }
+
+    private Checkpoint restore(Path checkpoint) throws IOException {
+        Checkpoint state = Checkpoint.read(problem, checkpoint);
+        this.temperature = state.getInitialTemperature();
+        this.coolingRate = state.getCoolingRate();
+        this.maxIterations = state.getMaxIterations();
+        this.seed = state.getSeed();
+        return state;
+    }
+
+    /* Schedule a solution read from a checkpoint with the max time lag rule of the run that saved it */
+    private DisjunctiveGraph schedule(Solution solution, boolean maxLagsEnforced) {
+        DisjunctiveGraph graph = new DisjunctiveGraph(problem, solution);
+        graph.setMaxLagsEnforced(maxLagsEnforced);
+        if (!graph.computeLongestPaths()) {
+            throw new IllegalStateException("The solution of the checkpoint cannot be scheduled");
+        }
+        solution.evaluate();
+        return graph;
+    }
+
+    /* Annealing from the initial solution, cooled by the System.nanoTime() clock until the deadline when the run is time limited and by the
+       iterations otherwise */
+    private Solution anneal(Solution initial, boolean timeLimited, long deadline, long stagnationLimit, Consumer<SolutionSnapshot> listener) {
         /* initialization */
         Solution current = initial.clone();
-        Solution best = current.clone();
-        Solution initialSolution = initial.clone();
-        
-        double temp = temperature;
+        DisjunctiveGraph graph = schedule(current);
+        if (graph == null) {
+            System.out.println("Error: the job and machine orders of the initial solution contain a cycle.");
+            return initial.clone();
+        }
+        if (!graph.isMaxLagsEnforced()) {
+            System.out.println("Initial solution violates the max time lags, they are relaxed for this run");
+        }
+        criticalOperations = null;
+        return anneal(current, graph, current.snapshot(), temperature, 0, 0, timeLimited, deadline, stagnationLimit, listener);
+    }
+
+    private Solution anneal(Checkpoint state, boolean timeLimited, long deadline, long stagnationLimit, Consumer<SolutionSnapshot> listener) {
+        /* the current solution gets the orders and the objective sums it had in the saved run, the best one is kept as saved */
+        Solution current = state.getCurrent();
+        DisjunctiveGraph graph = schedule(current, state.isMaxLagsEnforced());
+        current.setRunningSums(state.getRunningSums());
+        criticalOperations = state.getCriticalOperations();
+        underfilledOperations = state.getUnderfilledOperations();
+        guidanceInterval = state.getGuidanceInterval();
+        System.out.println("Resuming at iteration " + state.getIteration());
+        return anneal(current, graph, state.getBest(), state.getTemperature(), state.getIteration(), state.getLastImprovement(), timeLimited, deadline,
+                      stagnationLimit, listener);
+    }
 
-        /* stats for checking if the algorythm works */
-        int accepted = 0;
-        int rejected = 0;
-        int validNeighbors = 0;
-        int invalidNeighbors = 0;
+    /* Main loop of the annealing from a scheduled solution, at a given temperature and iteration. The best solution is kept as a snapshot of
+       the current one, which only copies the machines changed since the previous improvement */
+    private Solution anneal(Solution current, DisjunctiveGraph graph, SolutionSnapshot best, double temp, long iter, long lastImprovement,
+                            boolean timeLimited, long deadline, long stagnationLimit, Consumer<SolutionSnapshot> listener) {
+        double initialObjective = current.getObjectiveValue();
+        bestSoFar = best;
+        
+        /* a timed run cools from the temperature it starts with */
+        double startTemperature = temp;
+        double finalTemperature = Math.max(0.1, temperature * Math.pow(coolingRate, maxIterations));
         
         System.out.println("Simulated Annealing Start");
         System.out.println("Initial Solution: " + String.format("%.2f", current.getObjectiveValue()));
-        System.out.println("Temperature: " + temp + ", CoolingRate: " + coolingRate + ", MaxIter: " + maxIterations);
-        /* running the main loop while the limit of iteration is not reached and trhe research is still relevant (temperature) */
-        for (int iter = 0; iter < maxIterations && temp > 0.1; iter++) {
-            /* Generation of a new neighboor and checking if it respect the rules */
-            Solution neighbor = generateNeighbor(current);
-            
-            if (neighbor != null) {
-                neighbor.rebuildOperationToBatch();
-                DisjunctiveGraph graph = new DisjunctiveGraph(problem, neighbor);
-                
-                if (graph.computeLongestPaths()) {
-                    validNeighbors++;
-                    neighbor.evaluate();
-                    
-                    double delta = neighbor.getObjectiveValue() - current.getObjectiveValue();
-                    
-                    if (iter < 10 && delta != 0) {
-                        System.out.println("  Neighboor " + iter + ": Goal=" + String.format("%.2f", neighbor.getObjectiveValue()) + 
-                                         ", Delta=" + String.format("%.2f", delta));
-                    }
-                    
-                    /* checking accpetation criteria : yes if better and yes or no depending on the probability formula if not */
-                    boolean accept = false;
-                    if (delta > 0) {
-                        accept = true;
-                        accepted++;
-                    } else {
-                        double prob = Math.exp(delta / temp);
-                        if (iter < 10) {
-                            System.out.println("   Acceptation probability " + String.format("%.4f", prob));
-                        }
-                        if (random.nextDouble() < prob) {
-                            accept = true;
-                            accepted++;
-                        } else {
-                            rejected++;
-                        }
-                    }
-                    
-                    /* Updating current solution and best solution in case the current solution is the best one */
-                    if (accept) {
-                        current = neighbor;
-                        if (current.getObjectiveValue() > best.getObjectiveValue()) {
-                            best = current.clone();
-                            System.out.println("Iteration " + iter + " - New Best: " + 
-                                             String.format("%.2f", best.getObjectiveValue()) +
-                                             " (improvement: " + String.format("%.2f", 
-                                             best.getObjectiveValue() - initialSolution.getObjectiveValue()) + ")");
-                        }
-                    }
-                } else {
-                    invalidNeighbors++;
-                    rejected++;
+        long startNanos = System.nanoTime();
+        long budget = deadline - startNanos;
+        if (timeLimited) {
+            System.out.println("Temperature: " + temp + " to " + String.format("%.2f", finalTemperature) + ", Time left: " + budget / 1000000 + " ms, Seed: " + seed);
+        } else {
+            System.out.println("Temperature: " + temp + ", CoolingRate: " + coolingRate + ", MaxIter: " + maxIterations + ", Seed: " + seed);
+        }
+        iterationCount = iter;
+        if (speculation > 1) startSpeculation();
+        metrics.start();
+        SolverEvents.run("SimulatedAnnealing", problem, current, temp, timeLimited ? finalTemperature : 0.1, coolingRate, maxIterations, 1);
+        ExecutorService checkpointWriter = checkpointPath == null ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long firstIteration = iter;
+        /* running the main loop while the limit of iteration or time is not reached and trhe research is still relevant (temperature),
+           the progress goes to the metrics and is only printed once the loop is over */
+        for (;; iter++) {
+            if (timeLimited) {
+                /* temperature given by the share of the time budget already spent */
+                long elapsed = System.nanoTime() - startNanos;
+                if (elapsed >= budget) break;
+                temp = startTemperature * Math.pow(finalTemperature / startTemperature, (double) elapsed / budget);
+            } else if (iter >= maxIterations || temp <= 0.1) {
+                break;
+            }
+            if (stagnationLimit > 0 && iter - lastImprovement >= stagnationLimit) break;
+            if (checkpointWriter != null && iter > firstIteration && iter % checkpointInterval == 0) {
+                /* the state is copied here and encoded by the writer, the search goes on with its own solutions */
+                Checkpoint state = Checkpoint.capture(temperature, coolingRate, maxIterations, temp, iter, lastImprovement, graph.isMaxLagsEnforced(),
+                                                      seed, current, best, criticalOperations, underfilledOperations, guidanceInterval);
+                if (pendingCheckpoint.getAndSet(state) == null) {
+                    checkpointWriter.execute(this::writeCheckpoint);
                 }
             }
-            /* temeprature updating */
-            temp *= coolingRate;
+            if (metrics.isTrajectoryPoint(iter)) {
+                metrics.recordTrajectory(iter, temp, current.getObjectiveValue(), best.getObjectiveValue());
+                SolverEvents.progress(iter, temp, current.getObjectiveValue(), best.getObjectiveValue(), metrics);
+            }
+            if (workers != null) {
+                /* no neighbor is speculated past the end of the run or the next checkpoint */
+                long ahead = checkpointWriter != null ? checkpointInterval - iter % checkpointInterval : Long.MAX_VALUE;
+                if (!timeLimited) ahead = Math.min(ahead, maxIterations - iter);
+                if (stagnationLimit > 0) ahead = Math.min(ahead, stagnationLimit - (iter - lastImprovement));
+                if (guidance > 0) ahead = Math.min(ahead, GUIDANCE_INTERVAL - iter % GUIDANCE_INTERVAL);
+                speculate(current, graph, ahead);
+            }
+            /* Generation of a new neighboor in place on the current solution, kept or reverted by the acceptation rule */
+            int outcome = iterate(current, graph, temp);
             
-            /* Printing result every 1000 iterations for clarity */
-            if (iter % 1000 == 0) {
-                System.out.println("Iteration " + iter + " - T=" + String.format("%.2f", temp) + 
-                                 " - Accepted=" + accepted + " - Rejected=" + rejected +
-                                 " - Valides=" + validNeighbors + " - Not valides=" + invalidNeighbors);
+            /* updating best solution in case the current solution is the best one */
+            if (outcome == ACCEPTED && current.getObjectiveValue() > best.getObjectiveValue()) {
+                best = current.snapshot();
+                bestSoFar = best;
+                lastImprovement = iter;
+                SolverEvents.newBest(iter, temp, best);
+                if (listener != null) listener.accept(best);
+            }
+            /* temeprature updating */
+            if (!timeLimited) temp *= coolingRate;
+        }
+        metrics.recordTrajectory(iter, temp, current.getObjectiveValue(), best.getObjectiveValue());
+        metrics.stop();
+        if (workers != null) stopSpeculation();
+        if (checkpointWriter != null) {
+            /* the last checkpoint is complete on the disk when the solve returns */
+            checkpointWriter.shutdown();
+            try {
+                checkpointWriter.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (checkpointError != null) {
+                System.out.println("Checkpoint failed: " + checkpointError.getMessage());
             }
         }
         
         /* Final results */
-        System.out.println("Simulated Annealing End - " + (accepted + rejected) + " trials");
-        System.out.println("Initial Solution: " + String.format("%.2f", initialSolution.getObjectiveValue()));
+        System.out.println("Simulated Annealing End");
+        System.out.println("Initial Solution: " + String.format("%.2f", initialObjective));
         System.out.println("Best Solution Found: " + String.format("%.2f", best.getObjectiveValue()));
         System.out.println("Current Solution: " + String.format("%.2f", current.getObjectiveValue()));
-        System.out.println("Acceptable Neighboors: " + validNeighbors + ", unacceptables: " + invalidNeighbors);
-        if (accepted + rejected > 0) {
-            System.out.println("Acceptation Rate: " + String.format("%.2f%%", 
-                              100.0 * accepted / (accepted + rejected)));
+        long accepted = metrics.getTotal(SolverMetrics.ACCEPTED);
+        long scheduled = metrics.getTotal(SolverMetrics.GENERATED);
+        if (scheduled > 0) {
+            System.out.println("Acceptation Rate: " + String.format("%.2f%%", 100.0 * accepted / scheduled));
         }
+        System.out.println(metrics.summary());
         
-        return best;
+        return best.toSolution();
+    }
+
+    /* Workers of the speculative steps, every one with an annealing of the same seed */
+    private void startSpeculation() {
+        workers = new Worker[speculation];
+        candidates = new Candidate[speculation];
+        for (int w = 0; w < speculation; w++) {
+            workers[w] = new Worker();
+            workers[w].annealing = new SimulatedAnnealing(problem, temperature, coolingRate, maxIterations, seed);
+            workers[w].annealing.guidance = guidance;
+        }
+        prefetchCount = 0;
+        keptIterations.clear();
+        keptKeys.clear();
+        speculators = Executors.newFixedThreadPool(speculation, runnable -> {
+            Thread thread = new Thread(runnable, "speculation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void stopSpeculation() {
+        speculators.shutdown();
+        speculators = null;
+        workers = null;
+        candidates = null;
+        prefetchCount = 0;
+    }
+
+    private void writeCheckpoint() {
+        Checkpoint state = pendingCheckpoint.getAndSet(null);
+        if (state == null) return;
+        try {
+            Checkpoint.write(checkpointPath, state.encode());
+        } catch (IOException e) {
+            checkpointError = e;
+        }
     }
-    
-    
 }
\ No newline at end of file
@@ -2,130 +2,855 @@ import java.util.*;
 
 /* Class modeling a solution to the problem after performing the simulated annealign with every indicators to evaluate the performance*/
 public class Solution {
+    private static final double ALPHA = 601.0;
+    private static final double BETA = 1500001.0;
+    private static final double GAMMA = 41.0;
+
     private Problem problem;
     private List<Batch> batches;
-    private Map<Operation, Batch> operationToBatch;
-    private Map<Operation, Integer> startTimes;
+    /* State indexed by Operation.getGlobalIndex(): start time of every operation (-1 when not scheduled) and slot of its batch (-1 when none).
+       Every batch of the solution owns a slot of the batch array, the slots of removed batches are reused by the next added ones */
+    private int[] startTimes;
+    private int[] operationBatch;
+    private Batch[] slots;
+    private int slotCount;
+    private int[] freeSlots;
+    private int freeSlotCount;
+    /* State of the batches indexed by their slot: index in the list of batches, position in the sequence of their machine, and the cached
+       contribution to fBatch. The batches themselves stay objects holding their operations, machine and start time, which the moves edit in place */
+    private int[] listIndices;
+    private int[] positions;
+    private double[] batchTerms;
+    private boolean[] counted;
+    private boolean[] dirty;
+    /* Batches of every machine in processing order, indexed by Machine.getIndex(). The index of a batch in its sequence is its position on the machine,
+       kept in positions[] for the batches the change shifted so a batch is found in its sequence without a search */
+    private List<List<Batch>> sequences;
+    /* Batches by recipe and free capacity, updated with every touched batch */
+    private BatchIndex batchIndex;
     private double objectiveValue;
     private double fMov;
     private double fBatch;
     private double fXFac;
-    
+
+    /* Cached contributions of every job to fMov and fXFac, indexed by Job.getIndex(), and the running sums built on them.
+       A move only marks the jobs and batches it touched as dirty so evaluate() does not have to walk the whole solution again */
+    private double[] jobMov;
+    private double[] jobXFac;
+    private boolean[] jobCompleted;
+    private boolean[] jobDirty;
+    private List<Job> dirtyJobs;
+    private List<Batch> dirtyBatches;
+    private double fBatchSum;
+    private int validBatches;
+    private double fXFacSum;
+    private int completedJobs;
+    private boolean evaluated;
+    private int nextBatchId;
+    /* Time of the last replanning, the batches that are not frozen cannot start before it */
+    private int now;
+
+    /* Batches and machines whose structure changed since the disjunctive graph last read them, so it only reorders and reschedules around these ones */
+    private List<Batch> touchedBatches;
+    private int[] touchedMachines;
+    private int touchedMachineCount;
+
+    /* Journal of the move currently tried on this solution, filled between beginMove() and commitMove()/rollbackMove() */
+    private UndoLog undoLog;
+    private boolean recording;
+    private double savedFMov;
+    private double savedFBatch;
+    private double savedFXFac;
+    private double savedObjective;
+    private double savedFBatchSum;
+    private double savedFXFacSum;
+    private int savedValidBatches;
+    private int savedCompletedJobs;
+    /* Zobrist style hash of the structure of the solution: the batches of every machine in order, a batch being known by its operations and
+       the first of them, which gives its processing time. It is updated by the moves in O(1) per change and recomputed after any other change */
+    private long structureHash;
+    private boolean hashed;
+    private long savedStructureHash;
+    private boolean savedHashed;
+    private int savedNextBatchId;
+    private int savedTouchedBatches;
+    private int savedTouchedMachines;
+    /* Plans of the machines in the last snapshot, indexed by Machine.getIndex(), and the machines changed since then, which the next snapshot
+       copies again. A move marks the machines it touches even when it is rolled back, the next snapshot then copies them for nothing */
+    private SolutionSnapshot.MachinePlan[] plans;
+    private boolean[] planStale;
+
     public Solution(Problem problem) {
         this.problem = problem;
         this.batches = new ArrayList<>();
-        this.operationToBatch = new HashMap<>();
-        this.startTimes = new HashMap<>();
+        int operationCount = problem.getOperationCount();
+        this.startTimes = new int[operationCount];
+        this.operationBatch = new int[operationCount];
+        Arrays.fill(startTimes, -1);
+        Arrays.fill(operationBatch, -1);
+        this.slots = new Batch[Math.max(16, operationCount)];
+        this.freeSlots = new int[16];
+        this.listIndices = new int[slots.length];
+        this.positions = new int[slots.length];
+        this.batchTerms = new double[slots.length];
+        this.counted = new boolean[slots.length];
+        this.dirty = new boolean[slots.length];
+        this.batchIndex = new BatchIndex(problem);
+        this.sequences = new ArrayList<>();
+        for (int i = 0; i < problem.getMachines().size(); i++) {
+            sequences.add(new ArrayList<>());
+        }
+        int jobCount = problem.getJobs().size();
+        this.jobMov = new double[jobCount];
+        this.jobXFac = new double[jobCount];
+        this.jobCompleted = new boolean[jobCount];
+        this.jobDirty = new boolean[jobCount];
+        this.dirtyJobs = new ArrayList<>();
+        this.dirtyBatches = new ArrayList<>();
+        this.undoLog = new UndoLog();
+        this.touchedBatches = new ArrayList<>();
+        this.touchedMachines = new int[8];
+        this.plans = new SolutionSnapshot.MachinePlan[problem.getMachines().size()];
+        this.planStale = new boolean[plans.length];
+        Arrays.fill(planStale, true);
     }
-    
+
+    /* The batch is inserted on its machine at the position it was created with, or at the end when the machine has fewer batches */
     public void addBatch(Batch batch) {
+        boolean fresh = freeSlotCount == 0;
+        if (recording) undoLog.push(UndoLog.BATCH_ADDED, batch, null, fresh ? 1 : 0, 0, 0);
+        int slot;
+        if (fresh) {
+            if (slotCount == slots.length) growSlots();
+            slot = slotCount++;
+        } else {
+            slot = freeSlots[--freeSlotCount];
+        }
+        slots[slot] = batch;
+        batch.setSlot(slot);
+        listIndices[slot] = batches.size();
         batches.add(batch);
+        List<Batch> sequence = sequenceOf(batch.getMachineId());
+        int position = Math.max(0, Math.min(batch.getPosition(), sequence.size()));
+        sequence.add(position, batch);
+        renumber(sequence, position, sequence.size());
+        if (keepHash()) structureHash += links(sequence, batch.getMachineId(), position) - gap(sequence, batch.getMachineId(), position);
+        for (Operation op : batch.getOperations()) {
+            operationBatch[op.getGlobalIndex()] = slot;
+        }
+        nextBatchId = Math.max(nextBatchId, batch.getId() + 1);
+        touch(batch);
+        counted[slot] = false;
+        markBatchDirty(batch);
+    }
+
+    private void growSlots() {
+        int capacity = slots.length * 2;
+        slots = Arrays.copyOf(slots, capacity);
+        listIndices = Arrays.copyOf(listIndices, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        batchTerms = Arrays.copyOf(batchTerms, capacity);
+        counted = Arrays.copyOf(counted, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+    }
+
+    /* Positions of the batches of a sequence from index from to index to excluded, after the batches there shifted */
+    private void renumber(List<Batch> sequence, int from, int to) {
+        for (int i = from; i < to; i++) positions[sequence.get(i).getSlot()] = i;
+    }
+
+    /* Remove a batch and its cached contribution to fBatch, the last batch of the list takes its place so nothing is searched or shifted in the list */
+    public void removeBatch(Batch batch) {
+        if (!contains(batch)) return;
+        int slot = batch.getSlot();
+        int index = listIndices[slot];
+        List<Batch> sequence = sequenceOf(batch.getMachineId());
+        int position = positions[slot];
+        if (recording) undoLog.push(UndoLog.BATCH_REMOVED, batch, null, index, position);
+        Batch last = batches.remove(batches.size() - 1);
+        if (last != batch) {
+            batches.set(index, last);
+            listIndices[last.getSlot()] = index;
+        }
+        if (keepHash()) structureHash += gap(sequence, batch.getMachineId(), position) - links(sequence, batch.getMachineId(), position);
+        sequence.remove(position);
+        renumber(sequence, position, sequence.size());
+        releaseSlot(batch);
+        touch(batch);
+        if (counted[slot]) {
+            logBatchTerm(slot);
+            fBatchSum -= batchTerms[slot];
+            validBatches--;
+            counted[slot] = false;
+        }
+        dirty[slot] = false;
+    }
+
+    /* The operations still in a removed batch lose their batch, the slot goes back to the free ones */
+    private void releaseSlot(Batch batch) {
         for (Operation op : batch.getOperations()) {
-            operationToBatch.put(op, batch);
+            if (operationBatch[op.getGlobalIndex()] == batch.getSlot()) operationBatch[op.getGlobalIndex()] = -1;
+        }
+        slots[batch.getSlot()] = null;
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+        }
+        freeSlots[freeSlotCount++] = batch.getSlot();
+    }
+
+    /* Put an operation that has no batch yet in a batch of the solution, as the PBIA does while building the batches */
+    public void addOperation(Batch batch, Operation op) {
+        if (recording) throw new IllegalStateException("Operations can only be moved between batches during a move");
+        hashed = false;
+        batch.addOperation(op);
+        operationBatch[op.getGlobalIndex()] = batch.getSlot();
+        touch(batch);
+        markBatchDirty(batch);
+    }
+
+    /* Move an operation from its batch to another one, the order of the remaining operations is kept so the move can be reverted exactly */
+    public void moveOperation(Operation op, Batch from, Batch to) {
+        int index = from.getOperations().indexOf(op);
+        if (recording) undoLog.push(UndoLog.OPERATION_MOVED, op, from, index, 0, 0);
+        boolean hashing = keepHash();
+        long before = hashing ? links(from, to) : 0;
+        from.getOperations().remove(index);
+        to.addOperation(op);
+        if (hashing) structureHash += links(from, to) - before;
+        operationBatch[op.getGlobalIndex()] = to.getSlot();
+        touch(from);
+        touch(to);
+        markBatchDirty(from);
+        markBatchDirty(to);
+    }
+
+    /* Move a batch to another machine, where it is inserted at the given position */
+    public void setBatchMachine(Batch batch, int machineId, int position) {
+        if (batch.getMachineId() == machineId) {
+            moveBatch(batch, position);
+            return;
+        }
+        List<Batch> from = sequenceOf(batch.getMachineId());
+        int index = positions[batch.getSlot()];
+        if (recording) undoLog.push(UndoLog.BATCH_MACHINE, batch, null, batch.getMachineId(), index);
+        touchMachine(batch.getMachineId());
+        boolean hashing = keepHash();
+        if (hashing) structureHash += gap(from, batch.getMachineId(), index) - links(from, batch.getMachineId(), index);
+        from.remove(index);
+        renumber(from, index, from.size());
+        batch.setMachineId(machineId);
+        List<Batch> to = sequenceOf(machineId);
+        position = Math.min(position, to.size());
+        to.add(position, batch);
+        renumber(to, position, to.size());
+        if (hashing) structureHash += links(to, machineId, position) - gap(to, machineId, position);
+        touch(batch);
+        markBatchDirty(batch);
+    }
+
+    /* Move a batch to another position on its machine, the batches in between shift by one */
+    public void moveBatch(Batch batch, int position) {
+        List<Batch> sequence = sequenceOf(batch.getMachineId());
+        int index = positions[batch.getSlot()];
+        position = Math.min(position, sequence.size() - 1);
+        if (index == position) return;
+        if (recording) undoLog.push(UndoLog.BATCH_MOVED, batch, null, index, 0);
+        boolean hashing = keepHash();
+        if (hashing) structureHash += gap(sequence, batch.getMachineId(), index) - links(sequence, batch.getMachineId(), index);
+        sequence.remove(index);
+        sequence.add(position, batch);
+        renumber(sequence, Math.min(index, position), Math.max(index, position) + 1);
+        if (hashing) structureHash += links(sequence, batch.getMachineId(), position) - gap(sequence, batch.getMachineId(), position);
+        touch(batch);
+    }
+
+    /* New processing order of the batches of a machine, the same batches in another order. It is not journaled so it cannot be part of a move */
+    public void setMachineOrder(int machineId, List<Batch> order) {
+        if (recording) throw new IllegalStateException("The order of a machine cannot be set during a move");
+        List<Batch> sequence = sequenceOf(machineId);
+        if (order.size() != sequence.size() || !new HashSet<>(order).containsAll(sequence)) {
+            throw new IllegalArgumentException("The new order of machine " + machineId + " does not hold the batches of the machine");
+        }
+        sequence.clear();
+        sequence.addAll(order);
+        renumber(sequence, 0, sequence.size());
+        hashed = false;
+        touchMachine(machineId);
+    }
+
+    /* Batches of a machine in processing order, including the batches emptied by the move in progress. To be changed through the solution only */
+    public List<Batch> getMachineSequence(int machineId) {
+        return sequenceOf(machineId);
+    }
+
+    /* Index of a batch of the solution in the sequence of its machine */
+    public int getMachinePosition(Batch batch) { return positions[batch.getSlot()]; }
+
+    /* True when the batch is one of the batches of the solution, not removed from it */
+    public boolean contains(Batch batch) {
+        int slot = batch.getSlot();
+        return slot < slotCount && slots[slot] == batch;
+    }
+
+    /* Batch owning a slot, null for a free slot. The slots go from 0 to getSlotCount() - 1 */
+    public Batch getBatchInSlot(int slot) { return slots[slot]; }
+    public int getSlotCount() { return slotCount; }
+
+    private List<Batch> sequenceOf(int machineId) {
+        Machine machine = problem.getMachine(machineId);
+        if (machine == null) {
+            throw new IllegalStateException("Batch on unknown machine " + machineId);
+        }
+        return sequences.get(machine.getIndex());
+    }
+
+    /* Called once the operations, the machine or the presence of a batch changed: the disjunctive graph will revisit it and the recipe index is updated now */
+    private void touch(Batch batch) {
+        touchedBatches.add(batch);
+        touchMachine(batch.getMachineId());
+        batchIndex.update(batch, contains(batch));
+    }
+
+    private void touchMachine(int machineId) {
+        planStale[problem.getMachine(machineId).getIndex()] = true;
+        for (int i = 0; i < touchedMachineCount; i++) {
+            if (touchedMachines[i] == machineId) return;
+        }
+        if (touchedMachineCount == touchedMachines.length) {
+            touchedMachines = Arrays.copyOf(touchedMachines, touchedMachineCount * 2);
+        }
+        touchedMachines[touchedMachineCount++] = machineId;
+    }
+
+    /* Hash of the structure, equal for two solutions of the problem with the same batches in the same orders whatever the ids of the batches.
+       Two such solutions have the same start times and objective */
+    public long getStructureHash() {
+        if (!hashed) {
+            structureHash = 0;
+            for (Machine machine : problem.getMachines()) {
+                List<Batch> sequence = sequences.get(machine.getIndex());
+                for (int i = 0; i < sequence.size(); i++) {
+                    structureHash += pairKey(keyAt(sequence, machine.getId(), i - 1), keyAt(sequence, machine.getId(), i));
+                }
+            }
+            hashed = true;
+        }
+        return structureHash;
+    }
+
+    /* The hash follows the changes of a move, any other change invalidates it until it is asked again */
+    private boolean keepHash() {
+        if (!recording) hashed = false;
+        return hashed;
+    }
+
+    /* Terms of the hash linking the batch at a position of a sequence to its neighbours */
+    private long links(List<Batch> sequence, int machineId, int i) {
+        long key = keyAt(sequence, machineId, i);
+        long terms = pairKey(keyAt(sequence, machineId, i - 1), key);
+        return i + 1 < sequence.size() ? terms + pairKey(key, keyAt(sequence, machineId, i + 1)) : terms;
+    }
+
+    /* Term linking the neighbours of a position once the batch there is taken out */
+    private long gap(List<Batch> sequence, int machineId, int i) {
+        return i + 1 < sequence.size() ? pairKey(keyAt(sequence, machineId, i - 1), keyAt(sequence, machineId, i + 1)) : 0;
+    }
+
+    /* Terms touching two batches whose operations change together, the link between them counted once when they follow each other */
+    private long links(Batch b1, Batch b2) {
+        List<Batch> s1 = sequenceOf(b1.getMachineId());
+        List<Batch> s2 = sequenceOf(b2.getMachineId());
+        int i1 = positions[b1.getSlot()];
+        int i2 = positions[b2.getSlot()];
+        long terms = links(s1, b1.getMachineId(), i1) + links(s2, b2.getMachineId(), i2);
+        if (s1 == s2 && Math.abs(i1 - i2) == 1) {
+            int first = Math.min(i1, i2);
+            terms -= pairKey(keyAt(s1, b1.getMachineId(), first), keyAt(s1, b1.getMachineId(), first + 1));
+        }
+        return terms;
+    }
+
+    /* Key of the batch at a position, the position before the first one being the start of the machine */
+    private long keyAt(List<Batch> sequence, int machineId, int i) {
+        if (i < 0) return mix(~(long) machineId);
+        List<Operation> ops = sequence.get(i).getOperations();
+        if (ops.isEmpty()) return 0;
+        long sum = 0;
+        for (Operation op : ops) sum += mix(op.getGlobalIndex() + 1L);
+        return mix(sum ^ mix(-(long) ops.get(0).getGlobalIndex()));
+    }
+
+    private static long pairKey(long previous, long next) {
+        return mix(previous * 0x9E3779B97F4A7C15L + mix(next));
+    }
+
+    /* Finalizer of SplitMix64 */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public List<Batch> getTouchedBatches() { return touchedBatches; }
+    public int getTouchedMachineCount() { return touchedMachineCount; }
+    public int getTouchedMachine(int i) { return touchedMachines[i]; }
+
+    public void clearTouched() {
+        touchedBatches.clear();
+        touchedMachineCount = 0;
+    }
+
+    public int nextBatchId() {
+        return nextBatchId++;
+    }
+
+    /* Id the next batch will get, without taking it */
+    public int getNextBatchId() { return nextBatchId; }
+    /* Ids below the given one are not given to new batches, as when they belonged to batches removed before */
+    public void setNextBatchId(int id) { nextBatchId = Math.max(nextBatchId, id); }
+
+    /* Immutable copy of the solution sharing the plans of the machines unchanged since the previous snapshot, taken between two moves.
+       It costs the machines changed since then, so the best solution of a search can be kept at every improvement */
+    public SolutionSnapshot snapshot() {
+        if (recording) throw new IllegalStateException("A snapshot cannot be taken during a move");
+        for (int m = 0; m < plans.length; m++) {
+            if (planStale[m]) {
+                plans[m] = new SolutionSnapshot.MachinePlan(sequences.get(m));
+                planStale[m] = false;
+            }
+        }
+        return new SolutionSnapshot(problem, plans.clone(), now, nextBatchId, objectiveValue, fMov, fBatch, fXFac, getStructureHash());
+    }
+
+    /* To call when the operations or the machine of a batch changed so its contribution is recomputed on the next evaluation */
+    public void markBatchDirty(Batch batch) {
+        if (!dirty[batch.getSlot()]) {
+            dirty[batch.getSlot()] = true;
+            dirtyBatches.add(batch);
         }
     }
-    
+
     public void setStartTime(Operation op, int time) {
-        startTimes.put(op, time);
+        int previous = startTimes[op.getGlobalIndex()];
+        if (previous != time) {
+            if (recording) undoLog.push(UndoLog.OPERATION_START, op, null, previous, 0, 0);
+            startTimes[op.getGlobalIndex()] = time;
+            markJobDirty(op.getJob());
+        }
     }
-    
+
     public int getStartTime(Operation op) {
-        return startTimes.getOrDefault(op, -1);
+        return startTimes[op.getGlobalIndex()];
+    }
+
+    /* Every operations of a batch start together, only the terms of the batch and of the jobs whose time really changed are invalidated */
+    public void setBatchStartTime(Batch batch, int time) {
+        if (batch.getStartTime() != time) {
+            if (recording) undoLog.push(UndoLog.BATCH_START, batch, null, batch.getStartTime(), 0, 0);
+            batch.setStartTime(time);
+            markBatchDirty(batch);
+            planStale[problem.getMachine(batch.getMachineId()).getIndex()] = true;
+        }
+        for (Operation op : batch.getOperations()) {
+            setStartTime(op, time);
+        }
     }
-    
-    /* This method will be usefull to eveluate the performance of the SA after perfoming it and to compare it with the article data, it calcultate the 3 key indicators fMov, fBatch and fxFac as well as objective Value (goal) as described in the article */
+
+    /* A link between two batches of a machine about to change in the arrays of the disjunctive graph, MACHINE_PREVIOUS or MACHINE_NEXT. The
+       links are journaled like the start times so a rolled back move leaves the links the start times were computed with */
+    void logLink(DisjunctiveGraph graph, int kind, int slot, int linked) {
+        if (recording) undoLog.push(kind, graph, null, linked, slot);
+    }
+
+    private void markJobDirty(Job job) {
+        int idx = job.getIndex();
+        if (!jobDirty[idx]) {
+            jobDirty[idx] = true;
+            dirtyJobs.add(job);
+        }
+    }
+
+    /* This method will be usefull to eveluate the performance of the SA after perfoming it and to compare it with the article data, it calcultate the 3 key indicators fMov, fBatch and fxFac as well as objective Value (goal) as described in the article.
+       The first call computes every term, the next ones only update the terms of the dirty jobs and batches */
     public void evaluate() {
-        int horizon = problem.getHorizon();
-        double alpha = 601.0;
-        double beta = 1500001.0;
-        double gamma = 41.0;
-        
-        fMov = 0;
-        for (Job job : problem.getJobs()) {
-            for (Operation op : job.getOperations()) {
-                int start = getStartTime(op);
-                if (start >= 0 && start < horizon) {
-                    int end = start + op.getProcessingTime();
-                    double completionRatio = Math.min(end, horizon) - start;
-                    completionRatio = completionRatio / op.getProcessingTime();
-                    fMov += job.getWaferCount() * completionRatio;
+        if (!evaluated) {
+            evaluateAll();
+        } else {
+            for (Job job : dirtyJobs) {
+                updateJobTerms(job);
+                jobDirty[job.getIndex()] = false;
+            }
+            /* a batch removed since it was marked may have left its slot to another one */
+            for (Batch batch : dirtyBatches) {
+                int slot = batch.getSlot();
+                if (dirty[slot] && slots[slot] == batch) {
+                    updateBatchTerm(batch);
+                    dirty[slot] = false;
                 }
             }
         }
-        
-        fBatch = 0;
-        int validBatches = 0;
+        dirtyJobs.clear();
+        dirtyBatches.clear();
+
+        fBatch = validBatches > 0 ? fBatchSum / validBatches : 0;
+        fXFac = completedJobs > 0 ? fXFacSum / completedJobs : 0;
+        objectiveValue = ALPHA * fMov + BETA * fBatch - GAMMA * fXFac;
+    }
+
+    /* Recompute every term from scratch instead of the dirty ones only */
+    public void reevaluate() {
+        evaluated = false;
+        evaluate();
+    }
+
+    /* Running sums of fMov, fBatch and fXFac. They depend on the order the terms were updated in, so a solution read from a checkpoint takes back
+       the saved ones once evaluated and its next objectives have the same last bits as in the run that saved it */
+    double[] getRunningSums() {
+        return new double[] {fMov, fBatchSum, fXFacSum};
+    }
+
+    void setRunningSums(double[] sums) {
+        if (!evaluated || !dirtyJobs.isEmpty() || !dirtyBatches.isEmpty()) {
+            throw new IllegalStateException("The running sums can only be set on an evaluated solution");
+        }
+        fMov = sums[0];
+        fBatchSum = sums[1];
+        fXFacSum = sums[2];
+        evaluate();
+    }
+
+    private void evaluateAll() {
+        fMov = 0;
+        fXFacSum = 0;
+        completedJobs = 0;
+        Arrays.fill(jobMov, 0);
+        Arrays.fill(jobXFac, 0);
+        Arrays.fill(jobCompleted, false);
+        Arrays.fill(jobDirty, false);
+        for (Job job : problem.getJobs()) {
+            updateJobTerms(job);
+        }
+
+        fBatchSum = 0;
+        validBatches = 0;
         for (Batch batch : batches) {
-            if (batch.getStartTime() >= 0 && batch.getStartTime() < horizon && 
-                !batch.getOperations().isEmpty()) {
-                Machine m = problem.getMachine(batch.getMachineId());
-                if (m != null) {
-                    double denominator = m.getCapacity() + (m.getQualifiedRecipes().size() / 100.0);
-                    fBatch += batch.getOperations().size() / denominator;
-                    validBatches++;
+            counted[batch.getSlot()] = false;
+            updateBatchTerm(batch);
+            dirty[batch.getSlot()] = false;
+        }
+        evaluated = true;
+    }
+
+    /* Replace the cached fMov and fXFac contributions of a job by their current values */
+    private void updateJobTerms(Job job) {
+        int idx = job.getIndex();
+        int horizon = problem.getHorizon();
+        if (recording) undoLog.push(UndoLog.JOB_TERMS, job, jobCompleted[idx], idx, jobMov[idx], jobXFac[idx]);
+
+        double mov = 0;
+        for (Operation op : job.getOperations()) {
+            int start = getStartTime(op);
+            if (start >= 0 && start < horizon) {
+                int end = start + op.getProcessingTime();
+                double completionRatio = Math.min(end, horizon) - start;
+                completionRatio = completionRatio / op.getProcessingTime();
+                mov += job.getWaferCount() * completionRatio;
+            }
+        }
+        fMov += mov - jobMov[idx];
+        jobMov[idx] = mov;
+
+        if (jobCompleted[idx]) {
+            fXFacSum -= jobXFac[idx];
+            completedJobs--;
+            jobCompleted[idx] = false;
+        }
+        List<Operation> ops = job.getOperations();
+        if (!ops.isEmpty()) {
+            Operation lastOp = ops.get(ops.size() - 1);
+            int lastStart = getStartTime(lastOp);
+            if (lastStart >= 0) {
+                int lastEnd = lastStart + lastOp.getProcessingTime();
+                if (lastEnd <= horizon) {
+                    int totalTime = lastEnd - job.getReleaseDate();
+                    double xf = (double) totalTime / lastOp.getProcessingTime();
+                    jobXFac[idx] = job.getPriority() * xf;
+                    fXFacSum += jobXFac[idx];
+                    completedJobs++;
+                    jobCompleted[idx] = true;
                 }
             }
         }
-        if (validBatches > 0) fBatch /= validBatches;
-        
-        fXFac = 0;
-        int completedJobs = 0;
-        for (Job job : problem.getJobs()) {
-            List<Operation> ops = job.getOperations();
-            if (!ops.isEmpty()) {
-                Operation lastOp = ops.get(ops.size() - 1);
-                int lastStart = getStartTime(lastOp);
-                if (lastStart >= 0) {
-                    int lastEnd = lastStart + lastOp.getProcessingTime();
-                    if (lastEnd <= horizon) {
-                        int totalTime = lastEnd - job.getReleaseDate();
-                        double xf = (double) totalTime / lastOp.getProcessingTime();
-                        fXFac += job.getPriority() * xf;
-                        completedJobs++;
+    }
+
+    /* Replace the cached fBatch contribution of a batch by its current value */
+    private void updateBatchTerm(Batch batch) {
+        int slot = batch.getSlot();
+        logBatchTerm(slot);
+        if (counted[slot]) {
+            fBatchSum -= batchTerms[slot];
+            validBatches--;
+            counted[slot] = false;
+        }
+        int horizon = problem.getHorizon();
+        if (batch.getStartTime() >= 0 && batch.getStartTime() < horizon &&
+            !batch.getOperations().isEmpty()) {
+            Machine m = problem.getMachine(batch.getMachineId());
+            if (m != null) {
+                double denominator = m.getCapacity() + (m.getQualifiedRecipes().size() / 100.0);
+                batchTerms[slot] = batch.getOperations().size() / denominator;
+                fBatchSum += batchTerms[slot];
+                validBatches++;
+                counted[slot] = true;
+            }
+        }
+    }
+
+    private void logBatchTerm(int slot) {
+        if (recording) undoLog.push(UndoLog.BATCH_TERM, null, null, counted[slot] ? 1 : 0, slot, batchTerms[slot], 0);
+    }
+
+    /* Start recording a move applied in place, the solution has to be evaluated so the indicators can be restored as they are */
+    public void beginMove() {
+        if (!evaluated || !dirtyJobs.isEmpty() || !dirtyBatches.isEmpty()) {
+            evaluate();
+        }
+        undoLog.clear();
+        savedFMov = fMov;
+        savedFBatch = fBatch;
+        savedFXFac = fXFac;
+        savedObjective = objectiveValue;
+        savedFBatchSum = fBatchSum;
+        savedFXFacSum = fXFacSum;
+        savedValidBatches = validBatches;
+        savedCompletedJobs = completedJobs;
+        savedStructureHash = structureHash;
+        savedHashed = hashed;
+        savedNextBatchId = nextBatchId;
+        savedTouchedBatches = touchedBatches.size();
+        savedTouchedMachines = touchedMachineCount;
+        batchIndex.beginMove();
+        recording = true;
+    }
+
+    /* Keep the move, the journal is simply dropped */
+    public void commitMove() {
+        recording = false;
+        undoLog.clear();
+        batchIndex.commitMove();
+    }
+
+    /* Revert every change recorded since beginMove() in reverse order, including the cached indicators. The solution is given back exactly as
+       it was, down to the order of the recipe index and the id of the next batch, and the start times and machine links being journaled too the
+       disjunctive graph has nothing to revisit: the batches touched by the move are forgotten */
+    public void rollbackMove() {
+        recording = false;
+        for (int i = undoLog.size() - 1; i >= 0; i--) {
+            Object ref = undoLog.getRef(i);
+            int value = undoLog.getInt(i);
+            switch (undoLog.getKind(i)) {
+                case UndoLog.OPERATION_MOVED: {
+                    Operation op = (Operation) ref;
+                    Batch from = (Batch) undoLog.getOther(i);
+                    Batch to = slots[operationBatch[op.getGlobalIndex()]];
+                    to.getOperations().remove(to.getOperations().size() - 1);
+                    from.getOperations().add(value, op);
+                    operationBatch[op.getGlobalIndex()] = from.getSlot();
+                    break;
+                }
+                case UndoLog.BATCH_ADDED: {
+                    Batch batch = (Batch) ref;
+                    batches.remove(batches.size() - 1);
+                    List<Batch> sequence = sequenceOf(batch.getMachineId());
+                    int position = positions[batch.getSlot()];
+                    sequence.remove(position);
+                    renumber(sequence, position, sequence.size());
+                    for (Operation op : batch.getOperations()) {
+                        operationBatch[op.getGlobalIndex()] = -1;
                     }
+                    slots[batch.getSlot()] = null;
+                    if (value == 1) {
+                        slotCount--;
+                    } else {
+                        freeSlots[freeSlotCount++] = batch.getSlot();
+                    }
+                    break;
+                }
+                case UndoLog.BATCH_REMOVED: {
+                    /* the slot released by the removal is the last free one since everything done after it was already reverted */
+                    Batch batch = (Batch) ref;
+                    if (value < batches.size()) {
+                        Batch moved = batches.get(value);
+                        listIndices[moved.getSlot()] = batches.size();
+                        batches.add(moved);
+                        batches.set(value, batch);
+                    } else {
+                        batches.add(batch);
+                    }
+                    listIndices[batch.getSlot()] = value;
+                    List<Batch> sequence = sequenceOf(batch.getMachineId());
+                    sequence.add(undoLog.getExtra(i), batch);
+                    renumber(sequence, undoLog.getExtra(i), sequence.size());
+                    freeSlotCount--;
+                    slots[batch.getSlot()] = batch;
+                    for (Operation op : batch.getOperations()) {
+                        operationBatch[op.getGlobalIndex()] = batch.getSlot();
+                    }
+                    break;
+                }
+                case UndoLog.BATCH_MACHINE: {
+                    Batch batch = (Batch) ref;
+                    List<Batch> to = sequenceOf(batch.getMachineId());
+                    int position = positions[batch.getSlot()];
+                    to.remove(position);
+                    renumber(to, position, to.size());
+                    batch.setMachineId(value);
+                    List<Batch> from = sequenceOf(value);
+                    from.add(undoLog.getExtra(i), batch);
+                    renumber(from, undoLog.getExtra(i), from.size());
+                    break;
                 }
+                case UndoLog.BATCH_MOVED: {
+                    Batch batch = (Batch) ref;
+                    List<Batch> sequence = sequenceOf(batch.getMachineId());
+                    int position = positions[batch.getSlot()];
+                    sequence.remove(position);
+                    sequence.add(value, batch);
+                    renumber(sequence, Math.min(position, value), Math.max(position, value) + 1);
+                    break;
+                }
+                case UndoLog.BATCH_START:
+                    ((Batch) ref).setStartTime(value);
+                    break;
+                case UndoLog.OPERATION_START:
+                    startTimes[((Operation) ref).getGlobalIndex()] = value;
+                    break;
+                case UndoLog.JOB_TERMS:
+                    jobMov[value] = undoLog.getFirst(i);
+                    jobXFac[value] = undoLog.getSecond(i);
+                    jobCompleted[value] = (Boolean) undoLog.getOther(i);
+                    break;
+                case UndoLog.BATCH_TERM:
+                    counted[undoLog.getExtra(i)] = value == 1;
+                    batchTerms[undoLog.getExtra(i)] = undoLog.getFirst(i);
+                    break;
+                case UndoLog.MACHINE_PREVIOUS:
+                case UndoLog.MACHINE_NEXT:
+                    ((DisjunctiveGraph) ref).restoreLink(undoLog.getKind(i), undoLog.getExtra(i), value);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown undo entry " + undoLog.getKind(i));
             }
         }
-        if (completedJobs > 0) fXFac /= completedJobs;
-        
-        objectiveValue = alpha * fMov + beta * fBatch - gamma * fXFac;
+        undoLog.clear();
+        batchIndex.rollbackMove();
+        nextBatchId = savedNextBatchId;
+        while (touchedBatches.size() > savedTouchedBatches) touchedBatches.remove(touchedBatches.size() - 1);
+        touchedMachineCount = Math.min(touchedMachineCount, savedTouchedMachines);
+
+        for (Job job : dirtyJobs) {
+            jobDirty[job.getIndex()] = false;
+        }
+        for (Batch batch : dirtyBatches) {
+            dirty[batch.getSlot()] = false;
+        }
+        dirtyJobs.clear();
+        dirtyBatches.clear();
+
+        fMov = savedFMov;
+        fBatch = savedFBatch;
+        fXFac = savedFXFac;
+        objectiveValue = savedObjective;
+        fBatchSum = savedFBatchSum;
+        fXFacSum = savedFXFacSum;
+        validBatches = savedValidBatches;
+        completedJobs = savedCompletedJobs;
+        structureHash = savedStructureHash;
+        hashed = savedHashed;
     }
-    
+
     public Solution clone() {
         Solution s = new Solution(problem);
-        
+
+        /* the batches keep their slot so the per operation and per slot arrays are copied as they are, only the batch objects are new */
+        s.slots = new Batch[slots.length];
         for (Batch b : batches) {
             Batch newB = b.clone(b.getId());
             s.batches.add(newB);
+            s.slots[newB.getSlot()] = newB;
         }
-        
-        for (Batch newB : s.batches) {
-            for (Operation op : newB.getOperations()) {
-                s.operationToBatch.put(op, newB);
+        for (int m = 0; m < sequences.size(); m++) {
+            List<Batch> sequence = s.sequences.get(m);
+            for (Batch b : sequences.get(m)) {
+                sequence.add(s.slots[b.getSlot()]);
             }
         }
-        
-        s.startTimes = new HashMap<>(startTimes);
+        s.slotCount = slotCount;
+        s.freeSlots = Arrays.copyOf(freeSlots, freeSlots.length);
+        s.freeSlotCount = freeSlotCount;
+        System.arraycopy(startTimes, 0, s.startTimes, 0, startTimes.length);
+        System.arraycopy(operationBatch, 0, s.operationBatch, 0, operationBatch.length);
+        s.listIndices = listIndices.clone();
+        s.positions = positions.clone();
+        s.batchTerms = batchTerms.clone();
+        s.counted = counted.clone();
+        s.dirty = new boolean[slots.length];
+        s.nextBatchId = nextBatchId;
+        s.now = now;
+        /* the copy has the same machines, so it shares the plans of the last snapshot */
+        s.plans = plans.clone();
+        s.planStale = planStale.clone();
+        s.structureHash = structureHash;
+        s.hashed = hashed;
         s.objectiveValue = objectiveValue;
         s.fMov = fMov;
         s.fBatch = fBatch;
         s.fXFac = fXFac;
+
+        /* The caches are only worth copying when no change is pending, otherwise the copy will be fully evaluated */
+        if (evaluated && dirtyJobs.isEmpty() && dirtyBatches.isEmpty()) {
+            s.jobMov = jobMov.clone();
+            s.jobXFac = jobXFac.clone();
+            s.jobCompleted = jobCompleted.clone();
+            s.fBatchSum = fBatchSum;
+            s.validBatches = validBatches;
+            s.fXFacSum = fXFacSum;
+            s.completedJobs = completedJobs;
+            s.evaluated = true;
+        }
+        /* the recipe index refers to batches of its own solution, the copy holds the new batches in the same orders */
+        s.batchIndex = batchIndex.copy(s.slots);
         return s;
     }
-    
+
     public void rebuildOperationToBatch() {
-        operationToBatch.clear();
+        Arrays.fill(operationBatch, -1);
         for (Batch batch : batches) {
             for (Operation op : batch.getOperations()) {
-                operationToBatch.put(op, batch);
+                operationBatch[op.getGlobalIndex()] = batch.getSlot();
             }
         }
     }
-    
+
+    /* Frozen batches stay first on their machine, the other batches can only be placed from this position */
+    public int getFirstMovablePosition(int machineId) {
+        List<Batch> sequence = sequenceOf(machineId);
+        int position = 0;
+        while (position < sequence.size() && sequence.get(position).isFrozen()) position++;
+        return position;
+    }
+
+    public Problem getProblem() { return problem; }
+    public int getNow() { return now; }
+    public void setNow(int now) { this.now = now; }
     public List<Batch> getBatches() { return batches; }
-    public Batch getBatchForOperation(Operation op) { return operationToBatch.get(op); }
+    public BatchIndex getBatchIndex() { return batchIndex; }
+    public Batch getBatchForOperation(Operation op) {
+        int slot = operationBatch[op.getGlobalIndex()];
+        return slot < 0 ? null : slots[slot];
+    }
     public double getObjectiveValue() { return objectiveValue; }
     public double getfMov() { return fMov; }
     public double getfBatch() { return fBatch; }
     public double getfXFac() { return fXFac; }
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+import java.util.*;
+
+/* Immutable copy of a solution taken by Solution.snapshot(): per machine, the batches in processing order with their id, frozen start,
+   start time and operations, and the objective of the solution when it was taken. The plan of a machine is shared by every snapshot taken
+   while the machine did not change, so a snapshot only copies the machines changed since the previous one, and snapshots of one search
+   cost the memory of their differences. The solution itself is only built again by toSolution() */
+public class SolutionSnapshot {
+    /* Batches of one machine, the operations of batch i being operations[first[i]] to operations[first[i + 1] - 1] by global index */
+    static final class MachinePlan {
+        final int[] ids;
+        final int[] frozenStarts;
+        final int[] startTimes;
+        final int[] first;
+        final int[] operations;
+
+        MachinePlan(List<Batch> sequence) {
+            int count = sequence.size();
+            ids = new int[count];
+            frozenStarts = new int[count];
+            startTimes = new int[count];
+            first = new int[count + 1];
+            int operationCount = 0;
+            for (Batch batch : sequence) operationCount += batch.getOperations().size();
+            operations = new int[operationCount];
+            int k = 0;
+            for (int i = 0; i < count; i++) {
+                Batch batch = sequence.get(i);
+                ids[i] = batch.getId();
+                frozenStarts[i] = batch.getFrozenStart();
+                startTimes[i] = batch.getStartTime();
+                first[i] = k;
+                for (Operation op : batch.getOperations()) operations[k++] = op.getGlobalIndex();
+            }
+            first[count] = k;
+        }
+
+        /* Plan read back from a checkpoint */
+        MachinePlan(int[] ids, int[] frozenStarts, int[] startTimes, int[] first, int[] operations) {
+            this.ids = ids;
+            this.frozenStarts = frozenStarts;
+            this.startTimes = startTimes;
+            this.first = first;
+            this.operations = operations;
+        }
+    }
+
+    private final Problem problem;
+    private final MachinePlan[] plans;
+    private final int now;
+    private final int nextBatchId;
+    private final double objectiveValue;
+    private final double fMov;
+    private final double fBatch;
+    private final double fXFac;
+    private final long structureHash;
+    private final int batchCount;
+
+    SolutionSnapshot(Problem problem, MachinePlan[] plans, int now, int nextBatchId, double objectiveValue, double fMov, double fBatch,
+                     double fXFac, long structureHash) {
+        this.problem = problem;
+        this.plans = plans;
+        this.now = now;
+        this.nextBatchId = nextBatchId;
+        this.objectiveValue = objectiveValue;
+        this.fMov = fMov;
+        this.fBatch = fBatch;
+        this.fXFac = fXFac;
+        this.structureHash = structureHash;
+        int count = 0;
+        for (MachinePlan plan : plans) count += plan.ids.length;
+        this.batchCount = count;
+    }
+
+    public Problem getProblem() { return problem; }
+    public int getNow() { return now; }
+    public int getNextBatchId() { return nextBatchId; }
+    public double getObjectiveValue() { return objectiveValue; }
+    public double getfMov() { return fMov; }
+    public double getfBatch() { return fBatch; }
+    public double getfXFac() { return fXFac; }
+    public long getStructureHash() { return structureHash; }
+    public int getBatchCount() { return batchCount; }
+    /* Plan of the machine of index m in the problem */
+    MachinePlan getPlan(int m) { return plans[m]; }
+
+    /* Machines whose plan this snapshot shares with another one */
+    public int getSharedMachines(SolutionSnapshot other) {
+        int shared = 0;
+        for (int m = 0; m < plans.length; m++) {
+            if (m < other.plans.length && plans[m] == other.plans[m]) shared++;
+        }
+        return shared;
+    }
+
+    /* Solution with the batches and start times of the snapshot, evaluated from scratch so its objective may differ from the recorded one in
+       the last bits. The batches are listed machine after machine */
+    public Solution toSolution() {
+        Solution solution = new Solution(problem);
+        solution.setNow(now);
+        List<Operation> operations = problem.getOperations();
+        List<Machine> machines = problem.getMachines();
+        for (int m = 0; m < plans.length; m++) {
+            MachinePlan plan = plans[m];
+            for (int i = 0; i < plan.ids.length; i++) {
+                Batch batch = new Batch(plan.ids[i], machines.get(m).getId(), i);
+                batch.setFrozenStart(plan.frozenStarts[i]);
+                for (int k = plan.first[i]; k < plan.first[i + 1]; k++) {
+                    batch.addOperation(operations.get(plan.operations[k]));
+                }
+                solution.addBatch(batch);
+                if (plan.startTimes[i] >= 0) solution.setBatchStartTime(batch, plan.startTimes[i]);
+            }
+        }
+        solution.setNextBatchId(nextBatchId);
+        solution.evaluate();
+        return solution;
+    }
+}
@@ -0,0 +1,124 @@
+import jdk.jfr.*;
+
+/* Java Flight Recorder events of the solver, recorded with the standard JDK tooling (-XX:StartFlightRecording or jcmd JFR.start).
+   The events are only filled when a recording has them enabled, otherwise begin() and shouldCommit() cost next to nothing.
+   Move events are created on the iterations sampled by the metrics timers and are disabled by default, enable them in the recording settings */
+public class SolverEvents {
+
+    @Name("solver.Run")
+    @Label("Solver Run")
+    @Category({"Solver"})
+    @Description("Configuration of an annealing or parallel tempering run")
+    public static class Run extends Event {
+        @Label("Algorithm") String algorithm;
+        @Label("Jobs") int jobs;
+        @Label("Operations") int operations;
+        @Label("Machines") int machines;
+        @Label("Batches") int batches;
+        @Label("Initial Temperature") double temperature;
+        @Label("Final Temperature") double finalTemperature;
+        @Label("Cooling Rate") double coolingRate;
+        @Label("Max Iterations") long maxIterations;
+        @Label("Chains") int chains;
+        @Label("Initial Objective") double initialObjective;
+    }
+
+    @Name("solver.Progress")
+    @Label("Solver Progress")
+    @Category({"Solver"})
+    @Description("Periodic snapshot of an annealing chain")
+    @StackTrace(false)
+    public static class Progress extends Event {
+        @Label("Iteration") long iteration;
+        @Label("Temperature") double temperature;
+        @Label("Current Objective") double objective;
+        @Label("Best Objective") double best;
+        @Label("Acceptance Rate") @Percentage double acceptanceRate;
+        @Label("Cache Hit Rate") @Percentage double cacheHitRate;
+    }
+
+    @Name("solver.NewBest")
+    @Label("New Best Solution")
+    @Category({"Solver"})
+    public static class NewBest extends Event {
+        @Label("Iteration") long iteration;
+        @Label("Temperature") double temperature;
+        @Label("Objective") double objective;
+        @Label("Batches") int batches;
+    }
+
+    @Name("solver.Move")
+    @Label("Annealing Move")
+    @Category({"Solver"})
+    @Description("One sampled iteration of the annealing with the duration of its phases")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Move extends Event {
+        @Label("Move Type") String moveType;
+        @Label("Outcome") String outcome;
+        @Label("Generation") @Timespan(Timespan.NANOSECONDS) long generation;
+        @Label("Scheduling") @Timespan(Timespan.NANOSECONDS) long scheduling;
+        @Label("Evaluation") @Timespan(Timespan.NANOSECONDS) long evaluation;
+        @Label("Objective Delta") double delta;
+    }
+
+    @Name("solver.LongestPaths")
+    @Label("Longest Paths")
+    @Category({"Solver"})
+    @Description("Full computation of the start times on the disjunctive graph")
+    public static class LongestPaths extends Event {
+        @Label("Nodes") int nodes;
+        @Label("Max Lags Enforced") boolean maxLagsEnforced;
+        @Label("Feasible") boolean feasible;
+    }
+
+    /* The acceptance rate is the one of all the moves counted by the metrics so far */
+    public static void progress(long iteration, double temperature, double objective, double best, SolverMetrics metrics) {
+        Progress event = new Progress();
+        if (!event.shouldCommit()) return;
+        long generated = metrics.getTotal(SolverMetrics.GENERATED);
+        event.iteration = iteration;
+        event.temperature = temperature;
+        event.objective = objective;
+        event.best = best;
+        event.acceptanceRate = generated == 0 ? 0 : (double) metrics.getTotal(SolverMetrics.ACCEPTED) / generated;
+        event.cacheHitRate = metrics.getCacheHitRate();
+        event.commit();
+    }
+
+    public static void newBest(long iteration, double temperature, Solution best) {
+        newBest(iteration, temperature, best.getObjectiveValue(), best.getBatches().size());
+    }
+
+    public static void newBest(long iteration, double temperature, SolutionSnapshot best) {
+        newBest(iteration, temperature, best.getObjectiveValue(), best.getBatchCount());
+    }
+
+    private static void newBest(long iteration, double temperature, double objective, int batches) {
+        NewBest event = new NewBest();
+        if (!event.shouldCommit()) return;
+        event.iteration = iteration;
+        event.temperature = temperature;
+        event.objective = objective;
+        event.batches = batches;
+        event.commit();
+    }
+
+    public static void run(String algorithm, Problem problem, Solution initial, double temperature, double finalTemperature,
+                           double coolingRate, long maxIterations, int chains) {
+        Run event = new Run();
+        if (!event.shouldCommit()) return;
+        event.algorithm = algorithm;
+        event.jobs = problem.getJobs().size();
+        event.operations = problem.getOperationCount();
+        event.machines = problem.getMachines().size();
+        event.batches = initial.getBatches().size();
+        event.temperature = temperature;
+        event.finalTemperature = finalTemperature;
+        event.coolingRate = coolingRate;
+        event.maxIterations = maxIterations;
+        event.chains = chains;
+        event.initialObjective = initial.getObjectiveValue();
+        event.commit();
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Counters and timers of a solver run, cheap enough to stay on: the counters are striped LongAdders so the chains of a parallel run can share
+   one instance without contending, the timers only read the clock on one iteration out of sampleInterval, and the temperature and objective
+   trajectories keep one point out of trajectoryInterval iterations. Everything is printed or exported once the run is over */
+public class SolverMetrics {
+    /* Counters kept for every kind of move */
+    public static final int GENERATED = 0;
+    public static final int FEASIBLE = 1;
+    public static final int ACCEPTED = 2;
+    public static final int IMPROVING = 3;
+    /* attempts of the move that could not change the solution, and the ones that ended with an exception */
+    public static final int FAILED = 4;
+    public static final int ERRORS = 5;
+    private static final String[] COUNTER_NAMES = {"generated", "feasible", "accepted", "improving", "failed", "errors"};
+
+    /* Timed phases of an iteration */
+    public static final int GENERATION = 0;
+    public static final int SCHEDULING = 1;
+    public static final int EVALUATION = 2;
+    private static final String[] TIMER_NAMES = {"generation", "scheduling", "evaluation"};
+
+    private String[] moveNames;
+    private LongAdder[][] moveCounters;
+    private LongAdder iterations;
+    private LongAdder noNeighbor;
+    /* lookups of the neighbors in the evaluation cache, and the ones found there */
+    private LongAdder cacheLookups;
+    private LongAdder cacheHits;
+    /* neighbors rejected by the NeighborFilter before their scheduling, by reason */
+    private LongAdder[] filtered;
+    private LongAdder[] timerNanos;
+    private LongAdder[] timerSamples;
+    private int sampleMask;
+    private int trajectoryInterval;
+    /* iteration, temperature, current objective and best objective of every kept point */
+    private List<double[]> trajectory;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile Throwable lastError;
+
+    /* The sample interval is rounded up to a power of two so the sampling test is a mask */
+    public SolverMetrics(String[] moveNames, int sampleInterval, int trajectoryInterval) {
+        this.moveNames = moveNames;
+        this.moveCounters = new LongAdder[moveNames.length][COUNTER_NAMES.length];
+        for (LongAdder[] counters : moveCounters) {
+            for (int c = 0; c < counters.length; c++) counters[c] = new LongAdder();
+        }
+        this.iterations = new LongAdder();
+        this.noNeighbor = new LongAdder();
+        this.cacheLookups = new LongAdder();
+        this.cacheHits = new LongAdder();
+        this.filtered = new LongAdder[NeighborFilter.REASON_NAMES.length];
+        for (int r = 0; r < filtered.length; r++) filtered[r] = new LongAdder();
+        this.timerNanos = new LongAdder[TIMER_NAMES.length];
+        this.timerSamples = new LongAdder[TIMER_NAMES.length];
+        for (int t = 0; t < TIMER_NAMES.length; t++) {
+            timerNanos[t] = new LongAdder();
+            timerSamples[t] = new LongAdder();
+        }
+        this.sampleMask = Integer.highestOneBit(Math.max(1, sampleInterval) * 2 - 1) - 1;
+        this.trajectoryInterval = Math.max(1, trajectoryInterval);
+        this.trajectory = new ArrayList<>();
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        endNanos = 0;
+    }
+
+    public void stop() { endNanos = System.nanoTime(); }
+
+    public void iteration() { iterations.increment(); }
+    public void noNeighbor() { noNeighbor.increment(); }
+    public void count(int moveType, int counter) { moveCounters[moveType][counter].increment(); }
+
+    public void filtered(int reason) { filtered[reason].increment(); }
+
+    public void cacheLookup(boolean hit) {
+        cacheLookups.increment();
+        if (hit) cacheHits.increment();
+    }
+
+    public void error(int moveType, Throwable error) {
+        moveCounters[moveType][ERRORS].increment();
+        lastError = error;
+    }
+
+    /* The move counters and the filter rejections of another instance, the one a worker of a speculative step counts its neighbor in until the
+       neighbor is known to be part of the run */
+    public void addCounts(SolverMetrics other) {
+        for (int m = 0; m < moveCounters.length; m++) {
+            for (int c = 0; c < COUNTER_NAMES.length; c++) moveCounters[m][c].add(other.moveCounters[m][c].sum());
+        }
+        for (int r = 0; r < filtered.length; r++) filtered[r].add(other.filtered[r].sum());
+        if (other.lastError != null) lastError = other.lastError;
+    }
+
+    public void clearCounts() {
+        for (LongAdder[] counters : moveCounters) {
+            for (LongAdder counter : counters) counter.reset();
+        }
+        for (LongAdder counter : filtered) counter.reset();
+        lastError = null;
+    }
+
+    /* True when the timers of this iteration have to be read */
+    public boolean isSampled(long iteration) { return (iteration & sampleMask) == 0; }
+
+    public void time(int timer, long nanos) {
+        timerNanos[timer].add(nanos);
+        timerSamples[timer].increment();
+    }
+
+    public boolean isTrajectoryPoint(long iteration) { return iteration % trajectoryInterval == 0; }
+
+    public synchronized void recordTrajectory(long iteration, double temperature, double objective, double best) {
+        trajectory.add(new double[] {iteration, temperature, objective, best});
+    }
+
+    public long getIterations() { return iterations.sum(); }
+    public long getNoNeighbor() { return noNeighbor.sum(); }
+    public long getCount(int moveType, int counter) { return moveCounters[moveType][counter].sum(); }
+    public long getCacheLookups() { return cacheLookups.sum(); }
+    public long getCacheHits() { return cacheHits.sum(); }
+    public long getFiltered(int reason) { return filtered[reason].sum(); }
+
+    public long getTotalFiltered() {
+        long total = 0;
+        for (LongAdder counter : filtered) total += counter.sum();
+        return total;
+    }
+    public Throwable getLastError() { return lastError; }
+    public synchronized List<double[]> getTrajectory() { return new ArrayList<>(trajectory); }
+
+    public long getTotal(int counter) {
+        long total = 0;
+        for (int m = 0; m < moveNames.length; m++) total += moveCounters[m][counter].sum();
+        return total;
+    }
+
+    /* Mean duration of a timed phase in microseconds, over the sampled iterations */
+    public double getMeanMicros(int timer) {
+        long samples = timerSamples[timer].sum();
+        return samples == 0 ? 0 : timerNanos[timer].sum() / 1000.0 / samples;
+    }
+
+    /* Share of the neighbors whose evaluation was found in the cache */
+    public double getCacheHitRate() {
+        long lookups = cacheLookups.sum();
+        return lookups == 0 ? 0 : (double) cacheHits.sum() / lookups;
+    }
+
+    public double getElapsedSeconds() {
+        if (startNanos == 0) return 0;
+        return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1e9;
+    }
+
+    public double getIterationsPerSecond() {
+        double elapsed = getElapsedSeconds();
+        return elapsed == 0 ? 0 : iterations.sum() / elapsed;
+    }
+
+    /* Few lines for the console at the end of a run */
+    public String summary() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%d iterations in %.2f s (%.0f it/s), %d without neighbor%n", getIterations(), getElapsedSeconds(),
+                                 getIterationsPerSecond(), getNoNeighbor()));
+        for (int m = 0; m < moveNames.length; m++) {
+            out.append(String.format("  %-16s generated=%d feasible=%d accepted=%d improving=%d failed=%d errors=%d%n", moveNames[m],
+                                     getCount(m, GENERATED), getCount(m, FEASIBLE), getCount(m, ACCEPTED), getCount(m, IMPROVING),
+                                     getCount(m, FAILED), getCount(m, ERRORS)));
+        }
+        if (getTotalFiltered() > 0) {
+            out.append("  filtered before scheduling:");
+            for (int r = 0; r < filtered.length; r++) {
+                out.append(String.format(" %s=%d", NeighborFilter.REASON_NAMES[r], getFiltered(r)));
+            }
+            out.append(String.format("%n"));
+        }
+        if (getCacheLookups() > 0) {
+            out.append(String.format("  evaluation cache: %d lookups, %.2f%% hits%n", getCacheLookups(), 100 * getCacheHitRate()));
+        }
+        out.append("  mean times:");
+        for (int t = 0; t < TIMER_NAMES.length; t++) {
+            out.append(String.format(" %s=%.1f us", TIMER_NAMES[t], getMeanMicros(t)));
+        }
+        if (lastError != null) {
+            out.append(String.format("%n  last move error: %s", lastError));
+        }
+        return out.toString();
+    }
+
+    public void writeJson(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writeJson(writer);
+        }
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append("{\"iterations\":").append(getIterations())
+           .append(",\"elapsedSeconds\":").append(getElapsedSeconds())
+           .append(",\"iterationsPerSecond\":").append(getIterationsPerSecond())
+           .append(",\"noNeighbor\":").append(getNoNeighbor())
+           .append(",\"cache\":{\"lookups\":").append(getCacheLookups()).append(",\"hits\":").append(getCacheHits())
+           .append(",\"hitRate\":").append(getCacheHitRate()).append('}')
+           .append(",\"filtered\":{");
+        for (int r = 0; r < filtered.length; r++) {
+            if (r > 0) out.append(',');
+            out.append('"').append(NeighborFilter.REASON_NAMES[r]).append("\":").append(getFiltered(r));
+        }
+        out.append('}')
+           .append(",\"moves\":{");
+        for (int m = 0; m < moveNames.length; m++) {
+            if (m > 0) out.append(',');
+            out.append('"').append(moveNames[m]).append("\":{");
+            for (int c = 0; c < COUNTER_NAMES.length; c++) {
+                if (c > 0) out.append(',');
+                out.append('"').append(COUNTER_NAMES[c]).append("\":").append(getCount(m, c));
+            }
+            out.append('}');
+        }
+        out.append("},\"timers\":{");
+        for (int t = 0; t < TIMER_NAMES.length; t++) {
+            if (t > 0) out.append(',');
+            out.append('"').append(TIMER_NAMES[t]).append("\":{\"samples\":").append(timerSamples[t].sum())
+               .append(",\"meanMicros\":").append(getMeanMicros(t)).append('}');
+        }
+        out.append("},\"trajectory\":[");
+        List<double[]> points = getTrajectory();
+        for (int i = 0; i < points.size(); i++) {
+            double[] point = points.get(i);
+            if (i > 0) out.append(',');
+            out.append("{\"iteration\":").append((long) point[0]).append(",\"temperature\":").append(point[1])
+               .append(",\"objective\":").append(point[2]).append(",\"best\":").append(point[3]).append('}');
+        }
+        out.append("]}\n");
+        writer.write(out.toString());
+    }
+
+    /* One line per kind of move with its counters */
+    public void writeCsv(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writeCsv(writer);
+        }
+    }
+
+    public void writeCsv(Writer writer) throws IOException {
+        StringBuilder out = new StringBuilder("move");
+        for (String counter : COUNTER_NAMES) out.append(',').append(counter);
+        out.append('\n');
+        for (int m = 0; m < moveNames.length; m++) {
+            out.append(moveNames[m]);
+            for (int c = 0; c < COUNTER_NAMES.length; c++) out.append(',').append(getCount(m, c));
+            out.append('\n');
+        }
+        writer.write(out.toString());
+    }
+
+    public void writeTrajectoryCsv(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writeTrajectoryCsv(writer);
+        }
+    }
+
+    public void writeTrajectoryCsv(Writer writer) throws IOException {
+        StringBuilder out = new StringBuilder("iteration,temperature,objective,best\n");
+        for (double[] point : getTrajectory()) {
+            out.append((long) point[0]).append(',').append(point[1]).append(',').append(point[2]).append(',').append(point[3]).append('\n');
+        }
+        writer.write(out.toString());
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+/* Journal of the changes applied to a solution during a move, so a rejected neighbor can be reverted instead of cloned.
+   Entries are kept in parallel arrays that are reused from one move to the next to avoid allocating on every iteration */
+public class UndoLog {
+    public static final int OPERATION_MOVED = 0;
+    public static final int BATCH_ADDED = 1;
+    public static final int BATCH_REMOVED = 2;
+    public static final int BATCH_MACHINE = 3;
+    public static final int BATCH_MOVED = 4;
+    public static final int BATCH_START = 5;
+    public static final int OPERATION_START = 6;
+    public static final int JOB_TERMS = 7;
+    public static final int BATCH_TERM = 8;
+    public static final int MACHINE_PREVIOUS = 9;
+    public static final int MACHINE_NEXT = 10;
+
+    private int[] kinds;
+    private Object[] refs;
+    private Object[] others;
+    private int[] ints;
+    private int[] extras;
+    private double[] first;
+    private double[] second;
+    private int size;
+
+    public UndoLog() {
+        this.kinds = new int[64];
+        this.refs = new Object[64];
+        this.others = new Object[64];
+        this.ints = new int[64];
+        this.extras = new int[64];
+        this.first = new double[64];
+        this.second = new double[64];
+        this.size = 0;
+    }
+
+    public void push(int kind, Object ref, Object other, int value, double x, double y) {
+        push(kind, ref, other, value, 0, x, y);
+    }
+
+    /* Structural entries keep two integers, for example a batch removed from a machine keeps its index in the batch list and in the machine sequence */
+    public void push(int kind, Object ref, Object other, int value, int extra) {
+        push(kind, ref, other, value, extra, 0, 0);
+    }
+
+    /* Entries on slot indexed state keep the slot in extra and up to three values */
+    public void push(int kind, Object ref, Object other, int value, int extra, double x, double y) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+            others = Arrays.copyOf(others, capacity);
+            ints = Arrays.copyOf(ints, capacity);
+            extras = Arrays.copyOf(extras, capacity);
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+        }
+        kinds[size] = kind;
+        refs[size] = ref;
+        others[size] = other;
+        ints[size] = value;
+        extras[size] = extra;
+        first[size] = x;
+        second[size] = y;
+        size++;
+    }
+
+    /* References are released so the log does not keep removed batches alive */
+    public void clear() {
+        Arrays.fill(refs, 0, size, null);
+        Arrays.fill(others, 0, size, null);
+        size = 0;
+    }
+
+    public int size() { return size; }
+    public int getKind(int i) { return kinds[i]; }
+    public Object getRef(int i) { return refs[i]; }
+    public Object getOther(int i) { return others[i]; }
+    public int getInt(int i) { return ints[i]; }
+    public int getExtra(int i) { return extras[i]; }
+    public double getFirst(int i) { return first[i]; }
+    public double getSecond(int i) { return second[i]; }
+}
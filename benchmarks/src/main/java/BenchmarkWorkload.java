@@ -0,0 +1,63 @@
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/* Operations of the solver measured by the JMH benchmarks, on a generated problem of the requested size.
+   JMH does not accept benchmarks in the default package and a class of a named package cannot use the solver classes, so this class sits
+   in the default package next to the solver and hands every operation to the benchmarks as a Supplier, looked up by name once per trial */
+public class BenchmarkWorkload implements Function<String, Supplier<Object>> {
+    private Problem problem;
+    private Solution initial;
+    private Solution current;
+    private DisjunctiveGraph graph;
+    private SimulatedAnnealing annealing;
+    private long seed;
+
+    public BenchmarkWorkload(int jobs, int machines, int recipes, long seed) {
+        this.seed = seed;
+        this.problem = new ProblemGenerator(jobs, machines, recipes).generate(seed);
+        this.initial = new InitialSolution(problem).build();
+        this.current = initial.clone();
+        this.annealing = new SimulatedAnnealing(problem, 5000000.0, 0.995, 1000, seed);
+        this.graph = annealing.schedule(current);
+        if (graph == null) {
+            throw new IllegalStateException("The initial solution of the generated problem contains a cycle");
+        }
+    }
+
+    @Override
+    public Supplier<Object> apply(String name) {
+        switch (name) {
+            case "initialSolution":
+                return () -> new InitialSolution(problem).build();
+            case "evaluate":
+                return () -> {
+                    current.reevaluate();
+                    return current;
+                };
+            case "clone":
+                return () -> current.clone();
+            case "longestPaths":
+                return () -> graph.computeLongestPaths();
+            case "batchMove":
+                return () -> move(SimulatedAnnealing.BATCH_MOVE);
+            case "operationMove":
+                return () -> move(SimulatedAnnealing.OPERATION_MOVE);
+            case "operationSwitch":
+                return () -> move(SimulatedAnnealing.OPERATION_SWITCH);
+            case "solve":
+                return () -> new SimulatedAnnealing(problem, 5000000.0, 0.995, 1000, seed).solve(initial);
+            default:
+                throw new IllegalArgumentException("Unknown workload " + name);
+        }
+    }
+
+    /* One neighbor of the given kind applied, scheduled, evaluated and rolled back, so every call starts from the same solution */
+    private Object move(int moveType) {
+        current.beginMove();
+        if (annealing.applyMove(current, moveType) && graph.propagate()) {
+            current.evaluate();
+        }
+        current.rollbackMove();
+        return current;
+    }
+}
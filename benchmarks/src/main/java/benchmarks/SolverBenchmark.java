@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.*;
+
+/* Hot paths of the solver on generated problems: the demo size and instances 10 and 100 times bigger.
+   An instance is written jobs x machines x recipes, every trial generates it again from the same seed */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolverBenchmark {
+    @Param({"700x82x50", "7000x164x100", "70000x820x500"})
+    public String instance;
+
+    @Param({"42"})
+    public long seed;
+
+    private Supplier<Object> initialSolution;
+    private Supplier<Object> evaluate;
+    private Supplier<Object> cloneSolution;
+    private Supplier<Object> longestPaths;
+    private Supplier<Object> batchMove;
+    private Supplier<Object> operationMove;
+    private Supplier<Object> operationSwitch;
+    private Supplier<Object> solve;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws ReflectiveOperationException {
+        /* the solver reports its progress on the console, it is not part of what is measured */
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        String[] sizes = instance.split("x");
+        Function<String, Supplier<Object>> workload = (Function<String, Supplier<Object>>) Class.forName("BenchmarkWorkload")
+            .getConstructor(int.class, int.class, int.class, long.class)
+            .newInstance(Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1]), Integer.parseInt(sizes[2]), seed);
+        initialSolution = workload.apply("initialSolution");
+        evaluate = workload.apply("evaluate");
+        cloneSolution = workload.apply("clone");
+        longestPaths = workload.apply("longestPaths");
+        batchMove = workload.apply("batchMove");
+        operationMove = workload.apply("operationMove");
+        operationSwitch = workload.apply("operationSwitch");
+        solve = workload.apply("solve");
+    }
+
+    @Benchmark
+    public Object initialSolution() { return initialSolution.get(); }
+
+    @Benchmark
+    public Object evaluate() { return evaluate.get(); }
+
+    @Benchmark
+    public Object cloneSolution() { return cloneSolution.get(); }
+
+    @Benchmark
+    public Object longestPaths() { return longestPaths.get(); }
+
+    @Benchmark
+    public Object batchMove() { return batchMove.get(); }
+
+    @Benchmark
+    public Object operationMove() { return operationMove.get(); }
+
+    @Benchmark
+    public Object operationSwitch() { return operationSwitch.get(); }
+
+    /* 1000 iterations of the annealing from the initial solution */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public Object solve() { return solve.get(); }
+}